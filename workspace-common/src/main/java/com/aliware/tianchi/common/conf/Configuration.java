@@ -65,6 +65,282 @@ public class Configuration implements Serializable {
 
     private long statsPushDelayMs = 100;
 
+    /**
+     * 令牌租约在调用超时之外的宽限时间
+     */
+    private long tokenLeaseGraceMs = 50;
+
+    /**
+     * 租约回收时间轮配置
+     */
+    private long leaseWheelTickMs = 10;
+
+    private int leaseWheelSize = 512;
+
+    /**
+     * 加权随机兜底的采样表只包含最近这段时间内出现在 invokers 中的实例，在调度线程上按 leaseWheelTickMs 重建
+     */
+    private long samplerLiveMs = 1000;
+
+    /**
+     * 网关侧自适应并发上限配置
+     */
+    private int limiterInitialLimit = 20;
+
+    private int limiterMinLimit = 1;
+
+    private int limiterMaxLimit = 1000;
+
+    private long limiterWindowMs = 100;
+
+    private double limiterRtTolerance = 1.5d;
+
+    private double limiterBackoffRatio = .9d;
+
+    private double limiterSmoothing = .2d;
+
+    /**
+     * 推送权重与网关侧并发上限的混合比例 0~1，0 只用推送权重（无推送时退化为并发上限），1 只用并发上限
+     */
+    private double limiterWeightRatio = 0d;
+
+    /**
+     * 新实例（或重启的实例）慢启动窗口，窗口内令牌上限从 slowStartMinRatio 线性增长到 1
+     */
+    private long slowStartWindowMs = 10000;
+
+    private double slowStartMinRatio = .1d;
+
+    /**
+     * 连续失败多少次熔断实例
+     */
+    private int outlierConsecutiveFailures = 5;
+
+    /**
+     * 统计窗口内错误率超过该值熔断实例
+     */
+    private double outlierErrorRatio = .5d;
+
+    /**
+     * 错误率统计窗口内的最少请求数
+     */
+    private int outlierMinRequests = 20;
+
+    private long outlierWindowMs = 1000;
+
+    /**
+     * 熔断时间 = min(outlierMaxEjectionMs, outlierBaseEjectionMs * 累计熔断次数)
+     */
+    private long outlierBaseEjectionMs = 50;
+
+    private long outlierMaxEjectionMs = 3000;
+
+    /**
+     * 探测请求发出后超过该时间仍没有结果（超时、被丢弃）时放弃这次探测，允许重新探测
+     */
+    private long outlierProbeTimeoutMs = 2000;
+
+    /**
+     * 同一服务最多熔断的实例比例
+     */
+    private double outlierMaxEjectionPercent = .5d;
+
+    /**
+     * 超过该时间没有收到推送认为实例的统计信息过期
+     */
+    private long statsStaleAfterMs = 300;
+
+    /**
+     * 过期后可信容量按半衰期衰减到 statsStaleFloorRatio
+     */
+    private long statsStaleHalfLifeMs = 200;
+
+    private double statsStaleFloorRatio = .2d;
+
+    /**
+     * 按调用参数一致性哈希选择实例，单个实例的在途请求不超过 (1 + hashLoadFactor) 倍按令牌上限分摊的份额
+     */
+    private boolean consistentHash = false;
+
+    private double hashLoadFactor = .25d;
+
+    private int hashReplicas = 160;
+
+    /**
+     * 服务端丢弃已过截止时间、或按平均处理时间来不及完成的请求
+     */
+    private boolean openDeadlineDrop = true;
+
+    /**
+     * 服务端按 RT 梯度自适应调整准入并发，上限为线程数
+     */
+    private boolean openAdaptiveLimit = true;
+
+    /**
+     * 线程池使用 CoDel + 自适应 LIFO 队列，队列长度取 queues 参数，queues 不大于 0 时取线程数
+     */
+    private boolean openCoDelQueue = false;
+
+    /**
+     * 队列拥塞时的排队超时
+     */
+    private long codelTargetMs = 5;
+
+    /**
+     * 队列持续 codelIntervalMs 没有排空视为拥塞，也是不拥塞时的排队超时
+     */
+    private long codelIntervalMs = 100;
+
+    /**
+     * 线程池使用每线程队列 + 工作窃取，队列总长度取 queues 参数，queues 不大于 0 时取线程数
+     */
+    private boolean openWorkStealing = false;
+
+    /**
+     * 服务端容量估计：最小 RT 与吞吐量的统计窗口（推送次数）
+     */
+    private int capacityMinRtWindow = 150;
+
+    private int capacityThroughputWindow = 10;
+
+    /**
+     * RT 超过最小 RT 的倍数视为饱和
+     */
+    private double capacityRtTolerance = 1.2d;
+
+    /**
+     * 饱和时容量 = 吞吐量上界 * 最小 RT * capacityHeadroom（Little 定律）
+     */
+    private double capacityHeadroom = 1.1d;
+
+    /**
+     * 并发达到容量的该比例且未饱和时按 capacityProbeGain 向上试探
+     */
+    private double capacityProbeThreshold = .8d;
+
+    private double capacityProbeGain = 1.1d;
+
+    private double capacitySmoothing = .5d;
+
+    /**
+     * 吞吐量置信区间的 z 值
+     */
+    private double capacityConfidenceZ = 2d;
+
+    /**
+     * 每 capacityProbeRtInterval 次推送把 weight 降到 capacityProbeRtRatio 持续 capacityProbeRtPushes 次，重新测量最小 RT
+     */
+    private int capacityProbeRtInterval = 100;
+
+    private int capacityProbeRtPushes = 6;
+
+    private double capacityProbeRtRatio = .5d;
+
+    /**
+     * 按容量估计动态调整线程池大小，只对 ThreadPoolExecutor 生效
+     */
+    private boolean openPoolResize = false;
+
+    /**
+     * 线程数下限
+     */
+    private int poolMinThreads = 8;
+
+    /**
+     * 线程数上限 = threads 参数 * poolMaxThreadsRatio
+     */
+    private double poolMaxThreadsRatio = 1.5d;
+
+    /**
+     * 目标线程数连续 poolGrowPushes 次推送超过当前值的 1 + poolGrowRatio 时扩容
+     */
+    private double poolGrowRatio = .1d;
+
+    private int poolGrowPushes = 3;
+
+    /**
+     * 目标线程数连续 poolShrinkPushes 次推送低于当前值的 1 - poolShrinkRatio 时缩容，每次最多缩小 poolShrinkRatio
+     */
+    private double poolShrinkRatio = .2d;
+
+    private int poolShrinkPushes = 20;
+
+    /**
+     * 推送线程池的核心线程数，每个 listener 最多占用一个发送线程
+     */
+    private int pushThreads = 2;
+
+    /**
+     * listener 连续推送失败 pushMaxFailures 次后开始退避，退避时间从 statsPushDelayMs 起翻倍，不超过 pushRetryMaxMs
+     */
+    private int pushMaxFailures = 3;
+
+    private long pushRetryMaxMs = 2000;
+
+    /**
+     * listener 持续失败超过该时间才移除，网络抖动或 GC 停顿期间只退避不移除
+     */
+    private long pushEvictMs = 60000;
+
+    /**
+     * 服务端 CPU 被限流的周期比例超过 capacityThrottleThreshold 时视为饱和
+     */
+    private double capacityThrottleThreshold = .1d;
+
+    /**
+     * 网关按 1 - throttleWeightPenalty * 限流比例 缩小令牌上限中网关侧并发上限的部分；
+     * 推送的权重已经由服务端的容量估计按 capacityThrottleThreshold 处理过，不再缩小
+     */
+    private double throttleWeightPenalty = .5d;
+
+    /**
+     * 服务端每秒 GC 停顿超过 gcPauseMsPerSecThreshold 毫秒，或老年代占用率超过 gcImminentOccupancy 时，网关选择时给 RT 加上 gcPenaltyMs
+     */
+    private double gcPauseMsPerSecThreshold = 50d;
+
+    private double gcImminentOccupancy = .9d;
+
+    private double gcPenaltyMs = 50d;
+
+    /**
+     * 服务端启动后按 JIT 预热进度限制推送的 weight：从 threads * jitWarmupMinRatio 开始，最长 jitWarmupMaxMs
+     */
+    private double jitWarmupMinRatio = .2d;
+
+    private long jitWarmupMaxMs = 30000;
+
+    /**
+     * 编译耗时占墙钟时间的比例低于 jitCompileQuietRatio 视为编译安静，连续 jitQuietPushes 次后预热完成
+     */
+    private double jitCompileQuietRatio = .02d;
+
+    private int jitQuietPushes = 30;
+
+    /**
+     * 一个推送周期内服务数（所有端口合计）达到该值时并行生成快照
+     */
+    private int pushParallelThreshold = 8;
+
+    /**
+     * 并行生成快照的线程数，使用独立的线程池，不占用公共的 ForkJoinPool
+     */
+    private int snapshotThreads = 2;
+
+    /**
+     * 按 serviceId 隔离线程池的并发：每个服务预留一部分线程，剩下的作为各服务共享的突发容量
+     */
+    private boolean openBulkhead = false;
+
+    /**
+     * 所有服务预留的线程数占线程池的比例，按服务数平分
+     */
+    private double bulkheadReservedRatio = .5d;
+
+    /**
+     * 每个服务至少预留的线程数
+     */
+    private int bulkheadMinReserved = 1;
+
     public boolean isLogger() {
         return  (ThreadLocalRandom.current().nextInt() & 511) == 0;
         // return false;
@@ -186,4 +462,634 @@ public class Configuration implements Serializable {
         this.openThroughput = openThroughput;
         return this;
     }
+
+    public long getTokenLeaseGraceMs() {
+        return tokenLeaseGraceMs;
+    }
+
+    public Configuration setTokenLeaseGraceMs(long tokenLeaseGraceMs) {
+        this.tokenLeaseGraceMs = tokenLeaseGraceMs;
+        return this;
+    }
+
+    public long getLeaseWheelTickMs() {
+        return leaseWheelTickMs;
+    }
+
+    public Configuration setLeaseWheelTickMs(long leaseWheelTickMs) {
+        this.leaseWheelTickMs = leaseWheelTickMs;
+        return this;
+    }
+
+    public int getLeaseWheelSize() {
+        return leaseWheelSize;
+    }
+
+    public long getSamplerLiveMs() {
+        return samplerLiveMs;
+    }
+
+    public Configuration setSamplerLiveMs(long samplerLiveMs) {
+        this.samplerLiveMs = samplerLiveMs;
+        return this;
+    }
+
+    public Configuration setLeaseWheelSize(int leaseWheelSize) {
+        this.leaseWheelSize = leaseWheelSize;
+        return this;
+    }
+
+    public int getLimiterInitialLimit() {
+        return limiterInitialLimit;
+    }
+
+    public Configuration setLimiterInitialLimit(int limiterInitialLimit) {
+        this.limiterInitialLimit = limiterInitialLimit;
+        return this;
+    }
+
+    public int getLimiterMinLimit() {
+        return limiterMinLimit;
+    }
+
+    public Configuration setLimiterMinLimit(int limiterMinLimit) {
+        this.limiterMinLimit = limiterMinLimit;
+        return this;
+    }
+
+    public int getLimiterMaxLimit() {
+        return limiterMaxLimit;
+    }
+
+    public Configuration setLimiterMaxLimit(int limiterMaxLimit) {
+        this.limiterMaxLimit = limiterMaxLimit;
+        return this;
+    }
+
+    public long getLimiterWindowMs() {
+        return limiterWindowMs;
+    }
+
+    public Configuration setLimiterWindowMs(long limiterWindowMs) {
+        this.limiterWindowMs = limiterWindowMs;
+        return this;
+    }
+
+    public double getLimiterRtTolerance() {
+        return limiterRtTolerance;
+    }
+
+    public Configuration setLimiterRtTolerance(double limiterRtTolerance) {
+        this.limiterRtTolerance = limiterRtTolerance;
+        return this;
+    }
+
+    public double getLimiterBackoffRatio() {
+        return limiterBackoffRatio;
+    }
+
+    public Configuration setLimiterBackoffRatio(double limiterBackoffRatio) {
+        this.limiterBackoffRatio = limiterBackoffRatio;
+        return this;
+    }
+
+    public double getLimiterSmoothing() {
+        return limiterSmoothing;
+    }
+
+    public Configuration setLimiterSmoothing(double limiterSmoothing) {
+        this.limiterSmoothing = limiterSmoothing;
+        return this;
+    }
+
+    public double getLimiterWeightRatio() {
+        return limiterWeightRatio;
+    }
+
+    public Configuration setLimiterWeightRatio(double limiterWeightRatio) {
+        this.limiterWeightRatio = limiterWeightRatio;
+        return this;
+    }
+
+    public long getSlowStartWindowMs() {
+        return slowStartWindowMs;
+    }
+
+    public Configuration setSlowStartWindowMs(long slowStartWindowMs) {
+        this.slowStartWindowMs = slowStartWindowMs;
+        return this;
+    }
+
+    public double getSlowStartMinRatio() {
+        return slowStartMinRatio;
+    }
+
+    public Configuration setSlowStartMinRatio(double slowStartMinRatio) {
+        this.slowStartMinRatio = slowStartMinRatio;
+        return this;
+    }
+
+    public int getOutlierConsecutiveFailures() {
+        return outlierConsecutiveFailures;
+    }
+
+    public Configuration setOutlierConsecutiveFailures(int outlierConsecutiveFailures) {
+        this.outlierConsecutiveFailures = outlierConsecutiveFailures;
+        return this;
+    }
+
+    public double getOutlierErrorRatio() {
+        return outlierErrorRatio;
+    }
+
+    public Configuration setOutlierErrorRatio(double outlierErrorRatio) {
+        this.outlierErrorRatio = outlierErrorRatio;
+        return this;
+    }
+
+    public int getOutlierMinRequests() {
+        return outlierMinRequests;
+    }
+
+    public Configuration setOutlierMinRequests(int outlierMinRequests) {
+        this.outlierMinRequests = outlierMinRequests;
+        return this;
+    }
+
+    public long getOutlierWindowMs() {
+        return outlierWindowMs;
+    }
+
+    public Configuration setOutlierWindowMs(long outlierWindowMs) {
+        this.outlierWindowMs = outlierWindowMs;
+        return this;
+    }
+
+    public long getOutlierBaseEjectionMs() {
+        return outlierBaseEjectionMs;
+    }
+
+    public Configuration setOutlierBaseEjectionMs(long outlierBaseEjectionMs) {
+        this.outlierBaseEjectionMs = outlierBaseEjectionMs;
+        return this;
+    }
+
+    public long getOutlierMaxEjectionMs() {
+        return outlierMaxEjectionMs;
+    }
+
+    public Configuration setOutlierMaxEjectionMs(long outlierMaxEjectionMs) {
+        this.outlierMaxEjectionMs = outlierMaxEjectionMs;
+        return this;
+    }
+
+    public long getOutlierProbeTimeoutMs() {
+        return outlierProbeTimeoutMs;
+    }
+
+    public Configuration setOutlierProbeTimeoutMs(long outlierProbeTimeoutMs) {
+        this.outlierProbeTimeoutMs = outlierProbeTimeoutMs;
+        return this;
+    }
+
+    public double getOutlierMaxEjectionPercent() {
+        return outlierMaxEjectionPercent;
+    }
+
+    public Configuration setOutlierMaxEjectionPercent(double outlierMaxEjectionPercent) {
+        this.outlierMaxEjectionPercent = outlierMaxEjectionPercent;
+        return this;
+    }
+
+    public long getStatsStaleAfterMs() {
+        return statsStaleAfterMs;
+    }
+
+    public Configuration setStatsStaleAfterMs(long statsStaleAfterMs) {
+        this.statsStaleAfterMs = statsStaleAfterMs;
+        return this;
+    }
+
+    public long getStatsStaleHalfLifeMs() {
+        return statsStaleHalfLifeMs;
+    }
+
+    public Configuration setStatsStaleHalfLifeMs(long statsStaleHalfLifeMs) {
+        this.statsStaleHalfLifeMs = statsStaleHalfLifeMs;
+        return this;
+    }
+
+    public double getStatsStaleFloorRatio() {
+        return statsStaleFloorRatio;
+    }
+
+    public Configuration setStatsStaleFloorRatio(double statsStaleFloorRatio) {
+        this.statsStaleFloorRatio = statsStaleFloorRatio;
+        return this;
+    }
+
+    public boolean isConsistentHash() {
+        return consistentHash;
+    }
+
+    public Configuration setConsistentHash(boolean consistentHash) {
+        this.consistentHash = consistentHash;
+        return this;
+    }
+
+    public double getHashLoadFactor() {
+        return hashLoadFactor;
+    }
+
+    public Configuration setHashLoadFactor(double hashLoadFactor) {
+        this.hashLoadFactor = hashLoadFactor;
+        return this;
+    }
+
+    public int getHashReplicas() {
+        return hashReplicas;
+    }
+
+    public Configuration setHashReplicas(int hashReplicas) {
+        this.hashReplicas = hashReplicas;
+        return this;
+    }
+
+    public boolean isOpenDeadlineDrop() {
+        return openDeadlineDrop;
+    }
+
+    public Configuration setOpenDeadlineDrop(boolean openDeadlineDrop) {
+        this.openDeadlineDrop = openDeadlineDrop;
+        return this;
+    }
+
+    public boolean isOpenAdaptiveLimit() {
+        return openAdaptiveLimit;
+    }
+
+    public Configuration setOpenAdaptiveLimit(boolean openAdaptiveLimit) {
+        this.openAdaptiveLimit = openAdaptiveLimit;
+        return this;
+    }
+
+    public boolean isOpenCoDelQueue() {
+        return openCoDelQueue;
+    }
+
+    public Configuration setOpenCoDelQueue(boolean openCoDelQueue) {
+        this.openCoDelQueue = openCoDelQueue;
+        return this;
+    }
+
+    public long getCodelTargetMs() {
+        return codelTargetMs;
+    }
+
+    public Configuration setCodelTargetMs(long codelTargetMs) {
+        this.codelTargetMs = codelTargetMs;
+        return this;
+    }
+
+    public long getCodelIntervalMs() {
+        return codelIntervalMs;
+    }
+
+    public Configuration setCodelIntervalMs(long codelIntervalMs) {
+        this.codelIntervalMs = codelIntervalMs;
+        return this;
+    }
+
+    public boolean isOpenWorkStealing() {
+        return openWorkStealing;
+    }
+
+    public Configuration setOpenWorkStealing(boolean openWorkStealing) {
+        this.openWorkStealing = openWorkStealing;
+        return this;
+    }
+
+    public int getCapacityMinRtWindow() {
+        return capacityMinRtWindow;
+    }
+
+    public Configuration setCapacityMinRtWindow(int capacityMinRtWindow) {
+        this.capacityMinRtWindow = capacityMinRtWindow;
+        return this;
+    }
+
+    public int getCapacityThroughputWindow() {
+        return capacityThroughputWindow;
+    }
+
+    public Configuration setCapacityThroughputWindow(int capacityThroughputWindow) {
+        this.capacityThroughputWindow = capacityThroughputWindow;
+        return this;
+    }
+
+    public double getCapacityRtTolerance() {
+        return capacityRtTolerance;
+    }
+
+    public Configuration setCapacityRtTolerance(double capacityRtTolerance) {
+        this.capacityRtTolerance = capacityRtTolerance;
+        return this;
+    }
+
+    public double getCapacityHeadroom() {
+        return capacityHeadroom;
+    }
+
+    public Configuration setCapacityHeadroom(double capacityHeadroom) {
+        this.capacityHeadroom = capacityHeadroom;
+        return this;
+    }
+
+    public double getCapacityProbeThreshold() {
+        return capacityProbeThreshold;
+    }
+
+    public Configuration setCapacityProbeThreshold(double capacityProbeThreshold) {
+        this.capacityProbeThreshold = capacityProbeThreshold;
+        return this;
+    }
+
+    public double getCapacityProbeGain() {
+        return capacityProbeGain;
+    }
+
+    public Configuration setCapacityProbeGain(double capacityProbeGain) {
+        this.capacityProbeGain = capacityProbeGain;
+        return this;
+    }
+
+    public double getCapacitySmoothing() {
+        return capacitySmoothing;
+    }
+
+    public Configuration setCapacitySmoothing(double capacitySmoothing) {
+        this.capacitySmoothing = capacitySmoothing;
+        return this;
+    }
+
+    public double getCapacityConfidenceZ() {
+        return capacityConfidenceZ;
+    }
+
+    public Configuration setCapacityConfidenceZ(double capacityConfidenceZ) {
+        this.capacityConfidenceZ = capacityConfidenceZ;
+        return this;
+    }
+
+    public int getCapacityProbeRtInterval() {
+        return capacityProbeRtInterval;
+    }
+
+    public Configuration setCapacityProbeRtInterval(int capacityProbeRtInterval) {
+        this.capacityProbeRtInterval = capacityProbeRtInterval;
+        return this;
+    }
+
+    public int getCapacityProbeRtPushes() {
+        return capacityProbeRtPushes;
+    }
+
+    public Configuration setCapacityProbeRtPushes(int capacityProbeRtPushes) {
+        this.capacityProbeRtPushes = capacityProbeRtPushes;
+        return this;
+    }
+
+    public double getCapacityProbeRtRatio() {
+        return capacityProbeRtRatio;
+    }
+
+    public Configuration setCapacityProbeRtRatio(double capacityProbeRtRatio) {
+        this.capacityProbeRtRatio = capacityProbeRtRatio;
+        return this;
+    }
+
+    public boolean isOpenPoolResize() {
+        return openPoolResize;
+    }
+
+    public Configuration setOpenPoolResize(boolean openPoolResize) {
+        this.openPoolResize = openPoolResize;
+        return this;
+    }
+
+    public int getPoolMinThreads() {
+        return poolMinThreads;
+    }
+
+    public Configuration setPoolMinThreads(int poolMinThreads) {
+        this.poolMinThreads = poolMinThreads;
+        return this;
+    }
+
+    public double getPoolMaxThreadsRatio() {
+        return poolMaxThreadsRatio;
+    }
+
+    public Configuration setPoolMaxThreadsRatio(double poolMaxThreadsRatio) {
+        this.poolMaxThreadsRatio = poolMaxThreadsRatio;
+        return this;
+    }
+
+    public double getPoolGrowRatio() {
+        return poolGrowRatio;
+    }
+
+    public Configuration setPoolGrowRatio(double poolGrowRatio) {
+        this.poolGrowRatio = poolGrowRatio;
+        return this;
+    }
+
+    public int getPoolGrowPushes() {
+        return poolGrowPushes;
+    }
+
+    public Configuration setPoolGrowPushes(int poolGrowPushes) {
+        this.poolGrowPushes = poolGrowPushes;
+        return this;
+    }
+
+    public double getPoolShrinkRatio() {
+        return poolShrinkRatio;
+    }
+
+    public Configuration setPoolShrinkRatio(double poolShrinkRatio) {
+        this.poolShrinkRatio = poolShrinkRatio;
+        return this;
+    }
+
+    public int getPoolShrinkPushes() {
+        return poolShrinkPushes;
+    }
+
+    public Configuration setPoolShrinkPushes(int poolShrinkPushes) {
+        this.poolShrinkPushes = poolShrinkPushes;
+        return this;
+    }
+
+    public int getPushThreads() {
+        return pushThreads;
+    }
+
+    public Configuration setPushThreads(int pushThreads) {
+        this.pushThreads = pushThreads;
+        return this;
+    }
+
+    public int getPushMaxFailures() {
+        return pushMaxFailures;
+    }
+
+    public Configuration setPushMaxFailures(int pushMaxFailures) {
+        this.pushMaxFailures = pushMaxFailures;
+        return this;
+    }
+
+    public long getPushRetryMaxMs() {
+        return pushRetryMaxMs;
+    }
+
+    public Configuration setPushRetryMaxMs(long pushRetryMaxMs) {
+        this.pushRetryMaxMs = pushRetryMaxMs;
+        return this;
+    }
+
+    public long getPushEvictMs() {
+        return pushEvictMs;
+    }
+
+    public Configuration setPushEvictMs(long pushEvictMs) {
+        this.pushEvictMs = pushEvictMs;
+        return this;
+    }
+
+    public double getCapacityThrottleThreshold() {
+        return capacityThrottleThreshold;
+    }
+
+    public Configuration setCapacityThrottleThreshold(double capacityThrottleThreshold) {
+        this.capacityThrottleThreshold = capacityThrottleThreshold;
+        return this;
+    }
+
+    public double getThrottleWeightPenalty() {
+        return throttleWeightPenalty;
+    }
+
+    public Configuration setThrottleWeightPenalty(double throttleWeightPenalty) {
+        this.throttleWeightPenalty = throttleWeightPenalty;
+        return this;
+    }
+
+    public double getGcPauseMsPerSecThreshold() {
+        return gcPauseMsPerSecThreshold;
+    }
+
+    public Configuration setGcPauseMsPerSecThreshold(double gcPauseMsPerSecThreshold) {
+        this.gcPauseMsPerSecThreshold = gcPauseMsPerSecThreshold;
+        return this;
+    }
+
+    public double getGcImminentOccupancy() {
+        return gcImminentOccupancy;
+    }
+
+    public Configuration setGcImminentOccupancy(double gcImminentOccupancy) {
+        this.gcImminentOccupancy = gcImminentOccupancy;
+        return this;
+    }
+
+    public double getGcPenaltyMs() {
+        return gcPenaltyMs;
+    }
+
+    public Configuration setGcPenaltyMs(double gcPenaltyMs) {
+        this.gcPenaltyMs = gcPenaltyMs;
+        return this;
+    }
+
+    public double getJitWarmupMinRatio() {
+        return jitWarmupMinRatio;
+    }
+
+    public Configuration setJitWarmupMinRatio(double jitWarmupMinRatio) {
+        this.jitWarmupMinRatio = jitWarmupMinRatio;
+        return this;
+    }
+
+    public long getJitWarmupMaxMs() {
+        return jitWarmupMaxMs;
+    }
+
+    public Configuration setJitWarmupMaxMs(long jitWarmupMaxMs) {
+        this.jitWarmupMaxMs = jitWarmupMaxMs;
+        return this;
+    }
+
+    public double getJitCompileQuietRatio() {
+        return jitCompileQuietRatio;
+    }
+
+    public Configuration setJitCompileQuietRatio(double jitCompileQuietRatio) {
+        this.jitCompileQuietRatio = jitCompileQuietRatio;
+        return this;
+    }
+
+    public int getJitQuietPushes() {
+        return jitQuietPushes;
+    }
+
+    public Configuration setJitQuietPushes(int jitQuietPushes) {
+        this.jitQuietPushes = jitQuietPushes;
+        return this;
+    }
+
+    public int getPushParallelThreshold() {
+        return pushParallelThreshold;
+    }
+
+    public Configuration setPushParallelThreshold(int pushParallelThreshold) {
+        this.pushParallelThreshold = pushParallelThreshold;
+        return this;
+    }
+
+    public int getSnapshotThreads() {
+        return snapshotThreads;
+    }
+
+    public Configuration setSnapshotThreads(int snapshotThreads) {
+        this.snapshotThreads = snapshotThreads;
+        return this;
+    }
+
+    public boolean isOpenBulkhead() {
+        return openBulkhead;
+    }
+
+    public Configuration setOpenBulkhead(boolean openBulkhead) {
+        this.openBulkhead = openBulkhead;
+        return this;
+    }
+
+    public double getBulkheadReservedRatio() {
+        return bulkheadReservedRatio;
+    }
+
+    public Configuration setBulkheadReservedRatio(double bulkheadReservedRatio) {
+        this.bulkheadReservedRatio = bulkheadReservedRatio;
+        return this;
+    }
+
+    public int getBulkheadMinReserved() {
+        return bulkheadMinReserved;
+    }
+
+    public Configuration setBulkheadMinReserved(int bulkheadMinReserved) {
+        this.bulkheadMinReserved = bulkheadMinReserved;
+        return this;
+    }
 }
@@ -0,0 +1,151 @@
+package com.aliware.tianchi.common.metric;
+
+import com.aliware.tianchi.common.conf.Configuration;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+
+/**
+ * 基于 Little 定律的服务端容量估计，每个推送周期调用一次 {@link #update}
+ * <p>
+ * 饱和（RT 明显高于窗口内最小 RT、出现拒绝，或 CPU 被 cgroup 限流）时：
+ * capacity = 吞吐量置信上界 * 最小 RT * headroom，即不排队时能容纳的并发；
+ * 未饱和且并发已接近 capacity 时乘性向上试探；其余情况保持不变。
+ * <p>
+ * weight = capacity，maxInflight 再按吞吐量的变异系数放宽到置信上界。
+ * <p>
+ * 一直满载时测不到不排队的 RT，所以定期把 weight 降低几个推送周期重新测量最小 RT（类似 BBR 的 ProbeRTT），
+ * 探测期间只记录 RT，不调整容量。
+ * 非线程安全，只在推送线程中使用
+ *
+ * @author yangxf
+ */
+public class CapacityEstimator {
+
+    private final int minCapacity;
+    private final int maxCapacity;
+    private final double rtTolerance;
+    private final double headroom;
+    private final double probeThreshold;
+    private final double probeGain;
+    private final double smoothing;
+    private final double z;
+    private final double throttleThreshold;
+    private final int probeRtInterval;
+    private final int probeRtPushes;
+    private final double probeRtRatio;
+
+    private final double[] minRTs;
+    private final double[] throughputs;
+    private long rtSamples;
+    private long samples;
+
+    /**
+     * 剩余的最小 RT 探测次数
+     */
+    private int probeRemaining;
+
+    private double capacity;
+    private double cv;
+
+    public CapacityEstimator(Configuration conf, int minCapacity, int maxCapacity) {
+        checkNotNull(conf, "conf");
+        this.minCapacity = minCapacity;
+        this.maxCapacity = maxCapacity;
+        this.rtTolerance = conf.getCapacityRtTolerance();
+        this.headroom = conf.getCapacityHeadroom();
+        this.probeThreshold = conf.getCapacityProbeThreshold();
+        this.probeGain = conf.getCapacityProbeGain();
+        this.smoothing = conf.getCapacitySmoothing();
+        this.z = conf.getCapacityConfidenceZ();
+        this.throttleThreshold = conf.getCapacityThrottleThreshold();
+        this.probeRtInterval = Math.max(1, conf.getCapacityProbeRtInterval());
+        this.probeRtPushes = conf.getCapacityProbeRtPushes();
+        this.probeRtRatio = conf.getCapacityProbeRtRatio();
+        this.minRTs = new double[Math.max(1, conf.getCapacityMinRtWindow())];
+        this.throughputs = new double[Math.max(1, conf.getCapacityThroughputWindow())];
+        // 没有数据前按最大容量放行
+        this.capacity = maxCapacity;
+    }
+
+    /**
+     * @param completed   统计窗口内完成的请求数
+     * @param intervalMs  统计窗口长度
+     * @param avgRTMs     平均处理时间
+     * @param concurrency 当前并发（工作中的线程数）
+     * @param rejections  统计窗口内的拒绝数
+     */
+    public void update(long completed, long intervalMs, double avgRTMs, int concurrency, long rejections) {
+        update(completed, intervalMs, avgRTMs, concurrency, rejections, 0);
+    }
+
+    /**
+     * @param throttledRatio 被 cgroup 限流的调度周期比例
+     */
+    public void update(long completed, long intervalMs, double avgRTMs, int concurrency, long rejections,
+                       double throttledRatio) {
+        if (completed <= 0 || intervalMs <= 0 || avgRTMs <= 0) {
+            // 空闲时没有信息，保持原值
+            return;
+        }
+
+        minRTs[(int) (rtSamples++ % minRTs.length)] = avgRTMs;
+        if (probeRemaining > 0) {
+            probeRemaining--;
+            return;
+        }
+
+        throughputs[(int) (samples++ % throughputs.length)] = completed / (double) intervalMs;
+
+        double minRT = min(minRTs, rtSamples);
+        int n = (int) Math.min(samples, throughputs.length);
+        double mean = 0;
+        for (int k = 0; k < n; k++) {
+            mean += throughputs[k];
+        }
+        mean /= n;
+        double variance = 0;
+        for (int k = 0; k < n; k++) {
+            double d = throughputs[k] - mean;
+            variance += d * d;
+        }
+        double sd = n > 1 ? Math.sqrt(variance / (n - 1)) : 0;
+        cv = sd / mean;
+
+        boolean saturated = avgRTMs > minRT * rtTolerance || rejections > 0 || throttledRatio > throttleThreshold;
+        if (saturated) {
+            double upper = mean + z * sd / Math.sqrt(n);
+            double target = upper * minRT * headroom;
+            capacity += (target - capacity) * smoothing;
+        } else if (concurrency >= capacity * probeThreshold) {
+            capacity = capacity * probeGain + 1;
+        }
+        capacity = Math.max(minCapacity, Math.min(maxCapacity, capacity));
+
+        // 并发本来就低于探测值时当前 RT 已经是不排队的 RT，不需要探测
+        if (samples % probeRtInterval == 1 && concurrency >= capacity * probeRtRatio) {
+            probeRemaining = probeRtPushes;
+        }
+    }
+
+    public int getWeight() {
+        double weight = probeRemaining > 0 ? capacity * probeRtRatio : capacity;
+        return (int) Math.max(minCapacity, Math.round(weight));
+    }
+
+    public boolean isProbingRT() {
+        return probeRemaining > 0;
+    }
+
+    public int getMaxInflight() {
+        return (int) Math.min(maxCapacity, Math.ceil(capacity * (1 + z * cv)));
+    }
+
+    private static double min(double[] values, long samples) {
+        int n = (int) Math.min(samples, values.length);
+        double min = Double.MAX_VALUE;
+        for (int k = 0; k < n; k++) {
+            min = Math.min(min, values[k]);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,181 @@
+package com.aliware.tianchi.common.metric;
+
+import com.aliware.tianchi.common.conf.Configuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+
+/**
+ * 单个实例的熔断器（离群检测）
+ * <p>
+ * CLOSED：连续失败次数或窗口错误率超过阈值时请求熔断，是否真正熔断由调用方按最大熔断比例决定；
+ * OPEN：熔断时间到期后放行一个探测请求，进入 HALF_OPEN；
+ * HALF_OPEN：探测成功则关闭，失败则以更长的熔断时间重新打开；
+ * 探测超过 outlierProbeTimeoutMs 仍没有结果时回到 OPEN，允许重新探测，避免结果丢失后永远不再路由。
+ * <p>
+ * 所有状态变更都是 CAS，无锁
+ *
+ * @author yangxf
+ */
+public class CircuitBreaker {
+
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    private final int consecutiveFailures;
+    private final double errorRatio;
+    private final int minRequests;
+    private final long windowNanos;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final long probeTimeoutNanos;
+
+    private final AtomicInteger state = new AtomicInteger(CLOSED);
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong windowEnd;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * 累计熔断次数，熔断时间随之线性增长，关闭后逐次递减
+     */
+    private final AtomicInteger ejections = new AtomicInteger();
+
+    private volatile long openUntilNanos;
+
+    /**
+     * 当前探测的截止时间，只在 HALF_OPEN 时有意义
+     */
+    private volatile long probeDeadlineNanos;
+
+    public CircuitBreaker(Configuration conf) {
+        checkNotNull(conf, "conf");
+        this.consecutiveFailures = conf.getOutlierConsecutiveFailures();
+        this.errorRatio = conf.getOutlierErrorRatio();
+        this.minRequests = conf.getOutlierMinRequests();
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(conf.getOutlierWindowMs());
+        this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(conf.getOutlierBaseEjectionMs());
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(conf.getOutlierMaxEjectionMs());
+        this.probeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(conf.getOutlierProbeTimeoutMs());
+        this.windowEnd = new AtomicLong(System.nanoTime() + windowNanos);
+    }
+
+    /**
+     * 不改变状态的快速判断，用于选择前的过滤
+     */
+    public boolean isAvailable(long nowNanos) {
+        int s = state.get();
+        return s == CLOSED ||
+               (s == OPEN && nowNanos - openUntilNanos >= 0) ||
+               (s == HALF_OPEN && nowNanos - probeDeadlineNanos >= 0);
+    }
+
+    /**
+     * 请求真正发往该实例前调用，OPEN 到期时只有一个线程能拿到探测机会
+     */
+    public boolean tryAcquirePermission(long nowNanos) {
+        int s = state.get();
+        if (s == CLOSED) {
+            return true;
+        }
+        if (s == HALF_OPEN && nowNanos - probeDeadlineNanos >= 0) {
+            // 探测的结果没有回来，放弃这次探测，熔断时间已经到期，下面可以直接重新探测
+            state.compareAndSet(HALF_OPEN, OPEN);
+            s = state.get();
+        }
+        if (s != OPEN || nowNanos - openUntilNanos < 0) {
+            return false;
+        }
+        // 先写截止时间再切换状态，其他线程看到 HALF_OPEN 时截止时间已经生效；
+        // 竞争失败的线程写入的时间只差几纳秒，截止时间只在 HALF_OPEN 时使用
+        probeDeadlineNanos = nowNanos + probeTimeoutNanos;
+        return state.compareAndSet(OPEN, HALF_OPEN);
+    }
+
+    public void onSuccess(long nowNanos) {
+        failures.set(0);
+        requests.increment();
+        if (state.get() == HALF_OPEN && state.compareAndSet(HALF_OPEN, CLOSED)) {
+            ejections.updateAndGet(n -> Math.max(0, n - 1));
+            resetWindow(nowNanos);
+            return;
+        }
+        rollWindow(nowNanos);
+    }
+
+    /**
+     * @return true 达到熔断条件，需要调用方决定是否 {@link #open(long)}
+     */
+    public boolean onFailure(long nowNanos) {
+        requests.increment();
+        errors.increment();
+        int s = state.get();
+        if (s == HALF_OPEN) {
+            // 探测失败直接重新熔断，不受最大熔断比例限制（本来就算作已熔断）
+            if (state.compareAndSet(HALF_OPEN, OPEN)) {
+                eject(nowNanos);
+            }
+            return false;
+        }
+        if (s != CLOSED) {
+            return false;
+        }
+        if (failures.incrementAndGet() >= consecutiveFailures) {
+            return true;
+        }
+        return rollWindow(nowNanos);
+    }
+
+    /**
+     * @return true 本次调用使熔断器从 CLOSED 变为 OPEN
+     */
+    public boolean open(long nowNanos) {
+        if (state.compareAndSet(CLOSED, OPEN)) {
+            eject(nowNanos);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * OPEN 与 HALF_OPEN 都算作已熔断
+     */
+    public boolean isEjected() {
+        return state.get() != CLOSED;
+    }
+
+    public int getState() {
+        return state.get();
+    }
+
+    private void eject(long nowNanos) {
+        int n = ejections.incrementAndGet();
+        openUntilNanos = nowNanos + Math.min(maxEjectionNanos, baseEjectionNanos * n);
+        failures.set(0);
+        resetWindow(nowNanos);
+    }
+
+    /**
+     * @return true 窗口结束且错误率超过阈值
+     */
+    private boolean rollWindow(long nowNanos) {
+        long end = windowEnd.get();
+        if (nowNanos - end < 0 || !windowEnd.compareAndSet(end, nowNanos + windowNanos)) {
+            return false;
+        }
+        long total = requests.sumThenReset();
+        long error = errors.sumThenReset();
+        return total >= minRequests && error >= total * errorRatio;
+    }
+
+    private void resetWindow(long nowNanos) {
+        windowEnd.set(nowNanos + windowNanos);
+        requests.reset();
+        errors.reset();
+    }
+}
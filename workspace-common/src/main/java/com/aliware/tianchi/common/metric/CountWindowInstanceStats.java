@@ -132,6 +132,11 @@ public class CountWindowInstanceStats implements InstanceStats {
                 public long getNumberOfRejections() {
                     return rejections;
                 }
+
+                @Override
+                public double getAvgQueueMs() {
+                    return 0;
+                }
             };
         } finally {
             lock.readLock().unlock();
@@ -210,6 +215,11 @@ public class CountWindowInstanceStats implements InstanceStats {
         }
     }
 
+    @Override
+    public void queue(String serviceId, long queueMicros) {
+
+    }
+
     @Override
     public void clean() {
 
@@ -285,6 +295,11 @@ public class CountWindowInstanceStats implements InstanceStats {
         return 0;
     }
 
+    @Override
+    public double getAvgQueueMs(String serviceId) {
+        return 0;
+    }
+
     private static final int SIZE_SHIFT = 32;
     private static final long SUM_MASK = (1L << 32) - 1;
 
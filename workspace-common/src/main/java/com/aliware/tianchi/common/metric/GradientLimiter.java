@@ -0,0 +1,135 @@
+package com.aliware.tianchi.common.metric;
+
+import com.aliware.tianchi.common.conf.Configuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+
+/**
+ * 基于 RT 梯度的自适应并发上限
+ * <p>
+ * 每个采样窗口结束时：
+ * gradient = clamp(tolerance * longRT / shortRT, 0.5, 1)
+ * newLimit = limit * gradient + sqrt(limit)
+ * 窗口内出现拒绝/超时则按 backoffRatio 乘性减小
+ *
+ * @author yangxf
+ */
+public class GradientLimiter {
+
+    /**
+     * longRT 的平滑窗口数
+     */
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long windowNanos;
+    private final double rtTolerance;
+    private final double backoffRatio;
+    private final double smoothing;
+
+    private final AtomicLong windowEnd;
+    private final LongAdder rtSum = new LongAdder();
+    private final LongAdder rtCount = new LongAdder();
+    private final LongAccumulator maxInflight = new LongAccumulator(Math::max, 0);
+    private final AtomicBoolean dropped = new AtomicBoolean();
+
+    private volatile double limit;
+    private volatile double shortRTNanos;
+    private volatile double longRTNanos;
+
+    public GradientLimiter(Configuration conf) {
+        this(conf, conf.getLimiterInitialLimit(), conf.getLimiterMaxLimit());
+    }
+
+    public GradientLimiter(Configuration conf, int initialLimit, int maxLimit) {
+        checkNotNull(conf, "conf");
+        this.limit = initialLimit;
+        this.minLimit = conf.getLimiterMinLimit();
+        this.maxLimit = maxLimit;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLimiterWindowMs());
+        this.rtTolerance = conf.getLimiterRtTolerance();
+        this.backoffRatio = conf.getLimiterBackoffRatio();
+        this.smoothing = conf.getLimiterSmoothing();
+        this.windowEnd = new AtomicLong(System.nanoTime() + windowNanos);
+    }
+
+    /**
+     * @param rtNanos  本次请求的响应时间
+     * @param inflight 请求发出时的在途请求数
+     * @param drop     请求是否被拒绝或超时
+     * @return true 本次采样触发了 limit 的重新计算
+     */
+    public boolean onSample(long rtNanos, long inflight, boolean drop) {
+        if (drop) {
+            dropped.set(true);
+        } else {
+            rtSum.add(rtNanos);
+            rtCount.increment();
+        }
+        maxInflight.accumulate(inflight);
+
+        long now = System.nanoTime();
+        long end = windowEnd.get();
+        if (now - end >= 0 && windowEnd.compareAndSet(end, now + windowNanos)) {
+            update();
+            return true;
+        }
+        return false;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * 最近一个窗口的平均 RT，没有采样时为 0
+     */
+    public double getAvgRTMs() {
+        return shortRTNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private void update() {
+        long count = rtCount.sumThenReset();
+        long sum = rtSum.sumThenReset();
+        long inflight = maxInflight.getThenReset();
+        double current = limit;
+
+        if (dropped.getAndSet(false)) {
+            limit = Math.max(minLimit, current * backoffRatio);
+            return;
+        }
+
+        if (count == 0) {
+            return;
+        }
+
+        double shortRT = sum / (double) count;
+        shortRTNanos = shortRT;
+        if (longRTNanos == 0) {
+            longRTNanos = shortRT;
+        } else {
+            longRTNanos += (shortRT - longRTNanos) / LONG_WINDOW;
+        }
+        // 负载下降后 longRT 偏大，加速回落
+        if (longRTNanos > shortRT * 2) {
+            longRTNanos *= .95d;
+        }
+
+        // 实际并发远低于 limit 时 RT 不能反映容量，不增长
+        if (inflight < current / 2) {
+            return;
+        }
+
+        double gradient = Math.max(.5d, Math.min(1d, rtTolerance * longRTNanos / shortRT));
+        double newLimit = current * gradient + Math.sqrt(current);
+        newLimit = current * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+}
@@ -51,6 +51,14 @@ public interface InstanceStats extends Serializable {
      */
     void rejection(String serviceId);
 
+    /**
+     * 请求在线程池队列中等待的时间
+     *
+     * @param serviceId   服务id
+     * @param queueMicros 排队时间，微秒
+     */
+    void queue(String serviceId, long queueMicros);
+
     /**
      * 清理统计信息
      */
@@ -86,4 +94,6 @@ public interface InstanceStats extends Serializable {
 
     long getNumberOfRejections(String serviceId);
 
+    double getAvgQueueMs(String serviceId);
+
 }
@@ -0,0 +1,102 @@
+package com.aliware.tianchi.common.metric;
+
+import com.aliware.tianchi.common.conf.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+
+/**
+ * 服务端启动后的 JIT 预热进度，每个推送周期调用一次 {@link #update}
+ * <p>
+ * 编译耗时占墙钟时间的比例（EWMA）低于 jitCompileQuietRatio 且有请求在处理时计为一次安静的推送，
+ * 没有请求时热点代码还没有被编译，不计数；
+ * 连续 jitQuietPushes 次安静或启动超过 jitWarmupMaxMs 后视为预热完成，之后不再回退。
+ * 预热因子从 jitWarmupMinRatio 开始，按启动时间和安静次数中进度较快的一个线性增长到 1。
+ * 非线程安全，只在推送线程中使用
+ *
+ * @author yangxf
+ */
+public class JitWarmup {
+
+    /**
+     * 编译耗时的 EWMA 系数
+     */
+    private static final double ALPHA = .3d;
+
+    private final long startNanos;
+    private final double minRatio;
+    private final long maxWarmupNanos;
+    private final double quietRatio;
+    private final int quietPushes;
+
+    private long prevNanos;
+    private long prevCompileMs = -1;
+    /**
+     * 启动时假设编译繁忙
+     */
+    private double compileRatio = 1;
+    private int quiet;
+    private boolean warm;
+    private double factor;
+
+    public JitWarmup(Configuration conf, long startNanos) {
+        checkNotNull(conf, "conf");
+        this.startNanos = startNanos;
+        this.minRatio = conf.getJitWarmupMinRatio();
+        this.maxWarmupNanos = TimeUnit.MILLISECONDS.toNanos(conf.getJitWarmupMaxMs());
+        this.quietRatio = conf.getJitCompileQuietRatio();
+        this.quietPushes = Math.max(1, conf.getJitQuietPushes());
+        this.factor = minRatio;
+    }
+
+    /**
+     * @param compileMs 累计编译耗时，不支持统计时传 -1，只按请求和启动时间判断
+     * @param nowNanos  当前时间
+     * @param serving   本周期是否有请求在处理
+     */
+    public void update(long compileMs, long nowNanos, boolean serving) {
+        if (warm) {
+            return;
+        }
+
+        if (compileMs >= 0 && prevCompileMs >= 0 && nowNanos > prevNanos) {
+            double ratio = TimeUnit.MILLISECONDS.toNanos(compileMs - prevCompileMs) / (double) (nowNanos - prevNanos);
+            compileRatio += ALPHA * (ratio - compileRatio);
+        }
+        prevCompileMs = compileMs;
+        prevNanos = nowNanos;
+
+        // 没有请求时保持进度
+        if (serving) {
+            quiet = compileMs < 0 || compileRatio < quietRatio ? quiet + 1 : 0;
+        }
+
+        long uptime = nowNanos - startNanos;
+        if (quiet >= quietPushes || uptime >= maxWarmupNanos) {
+            warm = true;
+            factor = 1;
+            return;
+        }
+        double progress = Math.max((double) uptime / maxWarmupNanos, (double) quiet / quietPushes);
+        factor = Math.max(factor, minRatio + (1 - minRatio) * progress);
+    }
+
+    /**
+     * 预热因子 [jitWarmupMinRatio, 1]
+     */
+    public double getFactor() {
+        return factor;
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * 最近的编译耗时占墙钟时间的比例
+     */
+    public double getCompileRatio() {
+        return compileRatio;
+    }
+}
@@ -0,0 +1,192 @@
+package com.aliware.tianchi.common.metric;
+
+import com.aliware.tianchi.common.conf.Configuration;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+
+/**
+ * 按 serviceId 划分一个线程池的并发
+ * <p>
+ * 线程数的 bulkheadReservedRatio 按服务数平分作为各服务的预留（至少 bulkheadMinReserved），
+ * 其余线程作为共享的突发容量。服务在途数不超过预留时直接获取，超过后从突发容量中获取，
+ * 慢服务最多占满自己的预留和突发容量，不会占用其他服务的预留。
+ * 服务第一次出现或线程数变化时重新划分。
+ * 每次获取记录许可来自预留还是突发容量，归还时按来源归还，计数不会因并发的获取失败而漂移
+ *
+ * @author yangxf
+ */
+public class ServiceBulkhead {
+
+    private final double reservedRatio;
+    private final int minReserved;
+
+    /**
+     * key: serviceId
+     */
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * 各服务占用突发容量的在途数之和
+     */
+    private final AtomicInteger burstUsed = new AtomicInteger();
+
+    private volatile int threads;
+
+    private volatile int totalReserved;
+
+    public ServiceBulkhead(Configuration conf, int threads) {
+        checkNotNull(conf, "conf");
+        this.reservedRatio = Math.max(0, Math.min(1, conf.getBulkheadReservedRatio()));
+        this.minReserved = Math.max(0, conf.getBulkheadMinReserved());
+        this.threads = threads;
+    }
+
+    public Partition getOrCreatePartition(String serviceId) {
+        Partition partition = partitions.get(serviceId);
+        if (isNull(partition)) {
+            synchronized (this) {
+                partition = partitions.get(serviceId);
+                if (isNull(partition)) {
+                    partition = new Partition(serviceId);
+                    partitions.put(serviceId, partition);
+                    rebalance();
+                }
+            }
+        }
+        return partition;
+    }
+
+    /**
+     * @return 服务还没有请求时返回 null
+     */
+    public Partition getPartition(String serviceId) {
+        return partitions.get(serviceId);
+    }
+
+    public Collection<Partition> getPartitions() {
+        return partitions.values();
+    }
+
+    public synchronized void resize(int threads) {
+        this.threads = threads;
+        rebalance();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * 共享的突发容量
+     */
+    public int getBurst() {
+        return Math.max(0, threads - totalReserved);
+    }
+
+    public int getBurstUsed() {
+        return burstUsed.get();
+    }
+
+    /**
+     * 重新划分预留；已经发出的许可按获取时的来源归还，预留缩小时多出的在途请求自然结束即可
+     */
+    private void rebalance() {
+        int n = partitions.size();
+        if (n == 0) {
+            return;
+        }
+        int each = Math.min(threads / n, Math.max(minReserved, (int) (threads * reservedRatio) / n));
+        for (Partition partition : partitions.values()) {
+            partition.reserved = each;
+        }
+        totalReserved = each * n;
+    }
+
+    /**
+     * 许可的来源，归还时原样交回
+     */
+    public enum Permit {
+        RESERVED, BURST
+    }
+
+    public final class Partition {
+
+        private final String serviceId;
+
+        /**
+         * 占用预留的在途数
+         */
+        private final AtomicInteger reservedUsed = new AtomicInteger();
+
+        /**
+         * 占用突发容量的在途数
+         */
+        private final AtomicInteger burstHeld = new AtomicInteger();
+
+        private volatile int reserved;
+
+        Partition(String serviceId) {
+            this.serviceId = serviceId;
+        }
+
+        /**
+         * 先占预留，预留用完后从突发容量中获取；计数都用 CAS 在判断的同时占用，失败时不改动任何计数
+         *
+         * @return 获取失败时返回 null，成功后必须用返回的许可调用且只调用一次 {@link #release(Permit)}
+         */
+        public Permit tryAcquire() {
+            for (int n = reservedUsed.get(); n < reserved; n = reservedUsed.get()) {
+                if (reservedUsed.compareAndSet(n, n + 1)) {
+                    return Permit.RESERVED;
+                }
+            }
+            for (int n = burstUsed.get(); n < getBurst(); n = burstUsed.get()) {
+                if (burstUsed.compareAndSet(n, n + 1)) {
+                    burstHeld.incrementAndGet();
+                    return Permit.BURST;
+                }
+            }
+            return null;
+        }
+
+        public void release(Permit permit) {
+            if (permit == Permit.RESERVED) {
+                reservedUsed.decrementAndGet();
+            } else if (permit == Permit.BURST) {
+                burstHeld.decrementAndGet();
+                burstUsed.decrementAndGet();
+            }
+        }
+
+        /**
+         * 该服务当前最多还能达到的并发：预留加上突发容量中没有被其他服务占用的部分
+         */
+        public int getLimit() {
+            int others = Math.max(0, burstUsed.get() - burstHeld.get());
+            return reserved + Math.max(0, getBurst() - others);
+        }
+
+        public String getServiceId() {
+            return serviceId;
+        }
+
+        public int getInflight() {
+            return reservedUsed.get() + burstHeld.get();
+        }
+
+        public int getReserved() {
+            return reserved;
+        }
+
+        @Override
+        public String toString() {
+            return getInflight() + "/" + reserved + "/" + getLimit();
+        }
+    }
+}
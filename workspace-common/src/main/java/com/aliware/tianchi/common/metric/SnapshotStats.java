@@ -21,6 +21,16 @@ public abstract class SnapshotStats implements Serializable {
 
     private volatile long epoch;
 
+    /**
+     * 服务端所在 cgroup 最近一个推送周期内被 CPU 限流的调度周期比例
+     */
+    private volatile double throttledRatio;
+
+    /**
+     * 服务端的 JIT 预热因子，1 表示已经预热完成
+     */
+    private volatile double warmupFactor = 1;
+
     public SnapshotStats() {
         this(0, 0);
     }
@@ -30,6 +40,17 @@ public abstract class SnapshotStats implements Serializable {
         this.epoch = epoch;
     }
 
+    /**
+     * 不完整解析，只取出 serviceId@address，用于按实例合并推送
+     *
+     * @return 格式不对时返回 null
+     */
+    public static String keyOf(String text) {
+        int group = text.indexOf(GROUP_SEPARATOR);
+        int end = group < 0 ? -1 : text.indexOf(SEPARATOR, group + 1);
+        return end < 0 ? null : text.substring(0, end);
+    }
+
     public static SnapshotStats fromString(String text) {
         return fromString(null, text);
     }
@@ -44,7 +65,8 @@ public abstract class SnapshotStats implements Serializable {
 
         String serviceId = groups[0];
         String[] insts = groups[1].split(SEPARATOR);
-        if (insts.length != 12) {
+        // 第 13 到 15 个字段（排队时间、限流比例、预热因子）是后加的，兼容旧格式
+        if (insts.length < 12 || insts.length > 15) {
             throwIllegalArg();
         }
         String finalAddress = defaultIfEmpty(address, insts[0]);
@@ -59,12 +81,15 @@ public abstract class SnapshotStats implements Serializable {
         long throughput = Long.parseLong(insts[9]);
         int weight = Integer.parseInt(insts[10]);
         long epoch = Long.parseLong(insts[11]);
+        double avgQueueMs = insts.length > 12 ? Double.parseDouble(insts[12]) : 0;
+        double throttledRatio = insts.length > 13 ? Double.parseDouble(insts[13]) : 0;
+        double warmupFactor = insts.length > 14 ? Double.parseDouble(insts[14]) : 1;
         ServerStats serverStats = new ServerStats(finalAddress);
         RuntimeInfo runInfo = isEmpty(groups[2]) || groups[2].equals("null") ?
                 null : RuntimeInfo.fromString(groups[2]);
         serverStats.setRuntimeInfo(runInfo);
 
-        return new SnapshotStats(weight, epoch) {
+        SnapshotStats stats = new SnapshotStats(weight, epoch) {
             private static final long serialVersionUID = 6197862269143364929L;
 
             @Override
@@ -126,7 +151,15 @@ public abstract class SnapshotStats implements Serializable {
             public long getNumberOfRejections() {
                 return rejections;
             }
+
+            @Override
+            public double getAvgQueueMs() {
+                return avgQueueMs;
+            }
         };
+        stats.setThrottledRatio(throttledRatio);
+        stats.setWarmupFactor(warmupFactor);
+        return stats;
     }
 
     @Override
@@ -143,7 +176,10 @@ public abstract class SnapshotStats implements Serializable {
                + getAvgRTMs() + SEPARATOR
                + getThroughput() + SEPARATOR
                + getWeight() + SEPARATOR
-               + getEpoch()
+               + getEpoch() + SEPARATOR
+               + getAvgQueueMs() + SEPARATOR
+               + getThrottledRatio() + SEPARATOR
+               + getWarmupFactor()
                + GROUP_SEPARATOR + getServerStats().getRuntimeInfo();
     }
 
@@ -163,6 +199,22 @@ public abstract class SnapshotStats implements Serializable {
         return weight;
     }
 
+    public void setThrottledRatio(double throttledRatio) {
+        this.throttledRatio = throttledRatio;
+    }
+
+    public double getThrottledRatio() {
+        return throttledRatio;
+    }
+
+    public void setWarmupFactor(double warmupFactor) {
+        this.warmupFactor = warmupFactor;
+    }
+
+    public double getWarmupFactor() {
+        return warmupFactor;
+    }
+
     public String getAddress() {
         throw new UnsupportedOperationException();
     }
@@ -211,6 +263,22 @@ public abstract class SnapshotStats implements Serializable {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * 请求在服务端线程池队列中的平均等待时间，不包含在 {@link #getAvgRTMs()} 中
+     */
+    public double getAvgQueueMs() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 被服务端拒绝（限流、线程池满、截止时间丢弃）的请求占比
+     */
+    public double getRejectionRate() {
+        long rejections = Math.max(getNumberOfRejections(), 0);
+        long total = Math.max(getNumberOfSuccesses(), 0) + Math.max(getNumberOfFailures(), 0) + rejections;
+        return total == 0 ? 0 : rejections / (double) total;
+    }
+
     private static void throwIllegalArg() {
         throw new IllegalArgumentException("text format error, see SnapshotStats.toString()");
     }
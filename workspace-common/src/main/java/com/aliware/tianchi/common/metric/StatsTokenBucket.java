@@ -2,24 +2,87 @@ package com.aliware.tianchi.common.metric;
 
 import com.aliware.tianchi.common.util.Sequence;
 
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+
 /**
+ * 令牌桶
+ * <p>
+ * 每次 {@link #resetTokens(long)} 时可用令牌数 = maxTokens - 仍未归还的租约数（inflight）。
+ * 租约无论在哪次重置之前发出，归还时都把令牌加回：重置时已经扣掉了它，归还后可用 + 在途仍等于 maxTokens，
+ * 满载时在途的租约不会丢失。
+ * inflight 只在拿到令牌后增加，获取失败不会短暂抬高 inflight 而让重置算出偏小的可用数；
+ * 拿到令牌到增加 inflight 之间发生的重置会多算出一个令牌，下次重置时修正。
+ *
  * @author yangxf
  */
 public class StatsTokenBucket {
 
-    private long maxTokens;
+    private static final long TOUCH_GRANULARITY_NANOS = 1_000_000L;
+
+    private volatile long maxTokens;
 
     private final Sequence token;
 
+    /**
+     * 已发出但未归还的令牌数
+     */
+    private final Sequence inflight = new Sequence(0, 0);
+
+    /**
+     * 慢启动开始时间，基于 {@link System#nanoTime()}，收到实例的第一次推送或检测到重启时开始
+     */
+    private volatile long warmupStartNanos;
+
+    private volatile boolean warmupStarted;
+
+    /**
+     * 最近一次出现在负载均衡的 invokers 中的时间，基于 {@link System#nanoTime()}，精度为 {@link #TOUCH_GRANULARITY_NANOS}
+     */
+    private volatile long touchNanos;
+
     private volatile SnapshotStats stats;
 
+    /**
+     * 最近一次收到推送的时间，基于 {@link System#nanoTime()}
+     */
+    private volatile long statsUpdateNanos;
+
+    /**
+     * 推送是否已过期
+     */
+    private volatile boolean stale;
+
+    /**
+     * 网关侧根据响应时间学习到的并发上限，可能为空
+     */
+    private final GradientLimiter limiter;
+
+    /**
+     * 网关侧的离群检测，可能为空
+     */
+    private final CircuitBreaker breaker;
+
     public StatsTokenBucket() {
         this(null, 0L);
     }
 
+    public StatsTokenBucket(GradientLimiter limiter) {
+        this(limiter, null);
+    }
+
+    public StatsTokenBucket(GradientLimiter limiter, CircuitBreaker breaker) {
+        this(null, limiter.getLimit(), limiter, breaker);
+    }
+
     public StatsTokenBucket(SnapshotStats stats, long maxTokens) {
+        this(stats, maxTokens, null, null);
+    }
+
+    public StatsTokenBucket(SnapshotStats stats, long maxTokens, GradientLimiter limiter, CircuitBreaker breaker) {
         this.stats = stats;
         this.maxTokens = maxTokens;
+        this.limiter = limiter;
+        this.breaker = breaker;
         token = new Sequence(0, maxTokens);
     }
 
@@ -27,6 +90,7 @@ public class StatsTokenBucket {
         long n = token.getValue();
         while (n > 0) {
             if (token.compareAndSetValue(n, n - 1)) {
+                inflight.incrementAndGet();
                 return true;
             }
             n = token.getValue();
@@ -34,24 +98,127 @@ public class StatsTokenBucket {
         return false;
     }
 
+    /**
+     * 立即归还刚获取的令牌（未转成租约）
+     */
     public long releaseToken() {
+        inflight.decrementAndGet();
         return token.incrementAndGet();
     }
 
+    /**
+     * 将已获取的令牌转为租约
+     *
+     * @param deadlineNanos 租约到期时间，基于 {@link System#nanoTime()}
+     */
+    public TokenLease newLease(long id, long deadlineNanos) {
+        return new TokenLease(this, id, deadlineNanos);
+    }
+
+    /**
+     * 归还租约，同一个租约只会生效一次，在上次重置之前发出的租约同样归还
+     *
+     * @return true 本次调用实际归还了租约
+     */
+    public boolean release(TokenLease lease) {
+        if (!lease.finish()) {
+            return false;
+        }
+        inflight.decrementAndGet();
+        token.incrementAndGet();
+        return true;
+    }
+
     public long remainTokens() {
         return token.getValue();
     }
 
+    public long inflightTokens() {
+        return inflight.getValue();
+    }
+
     public synchronized void resetTokens(long tokens) {
-        token.getAndAdd(tokens - maxTokens);
         maxTokens = tokens;
+        for (; ; ) {
+            long n = token.getValue();
+            if (token.compareAndSetValue(n, tokens - inflight.getValue())) {
+                break;
+            }
+        }
+    }
+
+    public long getMaxTokens() {
+        return maxTokens;
+    }
+
+    public long getWarmupStartNanos() {
+        return warmupStartNanos;
+    }
+
+    /**
+     * 还没有收到过推送时慢启动尚未开始
+     */
+    public boolean isWarmupStarted() {
+        return warmupStarted;
+    }
+
+    /**
+     * 实例重启后重新开始慢启动
+     */
+    public void restartWarmup() {
+        warmupStartNanos = System.nanoTime();
+        warmupStarted = true;
+    }
+
+    /**
+     * 记录实例仍在 invokers 中，同一毫秒内只写一次
+     */
+    public void touch(long nowNanos) {
+        if (nowNanos - touchNanos >= TOUCH_GRANULARITY_NANOS) {
+            touchNanos = nowNanos;
+        }
+    }
+
+    public long getTouchNanos() {
+        return touchNanos;
+    }
+
+    public GradientLimiter getLimiter() {
+        return limiter;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
     }
 
     public SnapshotStats getStats() {
         return stats;
     }
 
+    /**
+     * 第一次推送时开始慢启动，桶可能在网关启动或选择时就已创建，不能从创建时算起
+     */
     public void setStats(SnapshotStats stats) {
+        if (!warmupStarted) {
+            restartWarmup();
+        }
         this.stats = stats;
+        statsUpdateNanos = System.nanoTime();
+        stale = false;
+    }
+
+    /**
+     * 距离最近一次推送的时间，没有推送时为 0
+     */
+    public long statsAgeNanos(long nowNanos) {
+        return isNull(stats) ? 0 : nowNanos - statsUpdateNanos;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public void setStale(boolean stale) {
+        this.stale = stale;
     }
 }
@@ -60,6 +60,12 @@ public class TimeWindowInstanceStats implements InstanceStats {
     private final Map<String, SegmentCounter> failuresCounterMap = new ConcurrentHashMap<>();
     private final Map<String, SegmentCounter> rejectionsCounterMap = new ConcurrentHashMap<>();
 
+    /*
+     * 排队时间（微秒）与排队次数，与上面的处理时间分开统计
+     */
+    private final Map<String, SegmentCounter> queueMicrosCounterMap = new ConcurrentHashMap<>();
+    private final Map<String, SegmentCounter> queuedCounterMap = new ConcurrentHashMap<>();
+
     public TimeWindowInstanceStats(Configuration configuration,
                                    String address,
                                    ServerStats serverStats,
@@ -143,6 +149,13 @@ public class TimeWindowInstanceStats implements InstanceStats {
         getOrCreate(rejectionsCounterMap, serviceId).increment(offset);
     }
 
+    @Override
+    public void queue(String serviceId, long queueMicros) {
+        long offset = offset();
+        getOrCreate(queueMicrosCounterMap, serviceId).add(offset, queueMicros);
+        getOrCreate(queuedCounterMap, serviceId).increment(offset);
+    }
+
     @Override
     public void clean() {
         // 留一个间隔作为缓冲
@@ -151,6 +164,8 @@ public class TimeWindowInstanceStats implements InstanceStats {
         cleanMap(successesCounterMap, toKey);
         cleanMap(failuresCounterMap, toKey);
         cleanMap(rejectionsCounterMap, toKey);
+        cleanMap(queueMicrosCounterMap, toKey);
+        cleanMap(queuedCounterMap, toKey);
     }
 
     @Override
@@ -270,6 +285,16 @@ public class TimeWindowInstanceStats implements InstanceStats {
         return _getNumberOfRejections(serviceId, high);
     }
 
+    @Override
+    public double getAvgQueueMs(String serviceId) {
+        if (!queuedCounterMap.containsKey(serviceId)) {
+            return 0;
+        }
+
+        long high = offset();
+        return _getAvgQueueMs(serviceId, high);
+    }
+
     @Override
     public SnapshotStats snapshot(String serviceId) {
         long offset = offset();
@@ -336,6 +361,11 @@ public class TimeWindowInstanceStats implements InstanceStats {
             public long getNumberOfRejections() {
                 return _getNumberOfRejections(serviceId, offset);
             }
+
+            @Override
+            public double getAvgQueueMs() {
+                return _getAvgQueueMs(serviceId, offset);
+            }
         };
     }
 
@@ -448,6 +478,15 @@ public class TimeWindowInstanceStats implements InstanceStats {
         return getOrCreate(rejectionsCounterMap, serviceId).sum(low, high);
     }
 
+    private double _getAvgQueueMs(String serviceId, long high) {
+        long low = high - windowSize;
+        long count = getOrCreate(queuedCounterMap, serviceId).sum(low, high);
+        if (count == 0) {
+            return 0;
+        }
+        return getOrCreate(queueMicrosCounterMap, serviceId).sum(low, high) / (count * 1000d);
+    }
+
     private SegmentCounter getOrCreate(Map<String, SegmentCounter> counterMap, String key) {
         return counterMap.computeIfAbsent(key, k -> counterFactory.newCounter());
     }
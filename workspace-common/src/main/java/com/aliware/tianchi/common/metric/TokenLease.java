@@ -0,0 +1,59 @@
+package com.aliware.tianchi.common.metric;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 带截止时间的令牌租约
+ * <p>
+ * 正常响应、异常或超时回收三者之间只有一个能成功归还令牌
+ *
+ * @author yangxf
+ */
+public final class TokenLease {
+
+    private static final int LEASED = 0;
+    private static final int RETURNED = 1;
+
+    private static final AtomicIntegerFieldUpdater<TokenLease> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(TokenLease.class, "state");
+
+    private final StatsTokenBucket bucket;
+    private final long id;
+    private final long deadlineNanos;
+
+    private volatile int state = LEASED;
+
+    TokenLease(StatsTokenBucket bucket, long id, long deadlineNanos) {
+        this.bucket = bucket;
+        this.id = id;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public boolean release() {
+        return bucket.release(this);
+    }
+
+    public boolean isReturned() {
+        return state == RETURNED;
+    }
+
+    public boolean isExpired(long nowNanos) {
+        return nowNanos - deadlineNanos >= 0;
+    }
+
+    public StatsTokenBucket getBucket() {
+        return bucket;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    boolean finish() {
+        return STATE_UPDATER.compareAndSet(this, LEASED, RETURNED);
+    }
+}
@@ -0,0 +1,91 @@
+package com.aliware.tianchi.common.util;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Vose 别名表，构建 O(n)，按权重随机采样 O(1) 且不分配内存
+ * <p>
+ * 构建后不可变，可以被多个线程无锁读取
+ *
+ * @author yangxf
+ */
+public final class AliasTable<E> {
+
+    private final Object[] elements;
+    private final double[] prob;
+    private final int[] alias;
+
+    private AliasTable(Object[] elements, double[] prob, int[] alias) {
+        this.elements = elements;
+        this.prob = prob;
+        this.alias = alias;
+    }
+
+    /**
+     * @return 权重之和不大于 0 时返回 null
+     */
+    public static <E> AliasTable<E> build(List<E> elements, long[] weights) {
+        int n = elements.size();
+        if (n == 0 || n != weights.length) {
+            return null;
+        }
+
+        double total = 0;
+        for (long w : weights) {
+            total += Math.max(w, 0);
+        }
+        if (total <= 0) {
+            return null;
+        }
+
+        double[] prob = new double[n];
+        int[] alias = new int[n];
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int s = 0, l = 0;
+
+        for (int i = 0; i < n; i++) {
+            scaled[i] = Math.max(weights[i], 0) * n / total;
+            if (scaled[i] < 1) {
+                small[s++] = i;
+            } else {
+                large[l++] = i;
+            }
+        }
+
+        while (s > 0 && l > 0) {
+            int less = small[--s];
+            int more = large[--l];
+            prob[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[s++] = more;
+            } else {
+                large[l++] = more;
+            }
+        }
+
+        // 剩余的只差浮点误差
+        while (l > 0) {
+            prob[large[--l]] = 1;
+        }
+        while (s > 0) {
+            prob[small[--s]] = 1;
+        }
+
+        return new AliasTable<>(elements.toArray(), prob, alias);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E sample(Random random) {
+        int i = random.nextInt(prob.length);
+        return (E) elements[random.nextDouble() < prob[i] ? i : alias[i]];
+    }
+
+    public int size() {
+        return prob.length;
+    }
+}
@@ -0,0 +1,269 @@
+package com.aliware.tianchi.common.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
+
+/**
+ * 当前进程所在 cgroup（v1 或 v2）的 CPU 配额、内存上限与 CPU 限流统计，启动时检测一次
+ * <p>
+ * 按 /proc/self/cgroup 中的路径查找控制器目录，容器内开启了 cgroup namespace 时退回到挂载点根目录
+ *
+ * @author yangxf
+ */
+public final class Cgroup {
+
+    public static final Cgroup CURRENT = detect();
+
+    private static final String ROOT = "/sys/fs/cgroup";
+
+    /**
+     * 0 表示不在 cgroup 中或不是 linux
+     */
+    private final int version;
+
+    private final long quotaMicros;
+    private final long periodMicros;
+    private final long memoryLimit;
+
+    /**
+     * cpu.stat 的路径，没有时为 null
+     */
+    private final String cpuStatPath;
+
+    private Cgroup(int version, long quotaMicros, long periodMicros, long memoryLimit, String cpuStatPath) {
+        this.version = version;
+        this.quotaMicros = quotaMicros;
+        this.periodMicros = periodMicros;
+        this.memoryLimit = memoryLimit;
+        this.cpuStatPath = cpuStatPath;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return CPU 配额（核数，可以是小数），没有限制时返回 -1
+     */
+    public double getCpuLimit() {
+        return quotaMicros > 0 && periodMicros > 0 ? (double) quotaMicros / periodMicros : -1;
+    }
+
+    /**
+     * @return 配额向上取整后与 cpus 的较小值，没有限制时返回 cpus
+     */
+    public int getEffectiveCpus(int cpus) {
+        double limit = getCpuLimit();
+        return limit > 0 ? Math.max(1, Math.min(cpus, (int) Math.ceil(limit))) : cpus;
+    }
+
+    /**
+     * @return 内存上限（字节），没有限制时返回 -1
+     */
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * @return 没有 CPU 配额或读不到 cpu.stat 时返回 null
+     */
+    public ThrottleSampler newThrottleSampler() {
+        if (getCpuLimit() <= 0 || isNull(cpuStatPath)) {
+            return null;
+        }
+        try {
+            ThrottleSampler sampler = new ThrottleSampler(new RandomAccessFile(cpuStatPath, "r"), version);
+            sampler.sample();
+            return sampler;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cgroup v" + version + ", cpuLimit=" + getCpuLimit() + ", memoryLimit=" + memoryLimit;
+    }
+
+    private static Cgroup detect() {
+        try {
+            List<String> lines = Files.readAllLines(Paths.get("/proc/self/cgroup"), StandardCharsets.UTF_8);
+            if (new File(ROOT, "cgroup.controllers").exists()) {
+                return detectV2(lines);
+            }
+            return detectV1(lines);
+        } catch (IOException | RuntimeException e) {
+            return new Cgroup(0, -1, -1, -1, null);
+        }
+    }
+
+    /**
+     * cpu.max 格式为 "$MAX $PERIOD"，MAX 可以是 "max"
+     */
+    private static Cgroup detectV2(List<String> lines) {
+        String path = "/";
+        for (String line : lines) {
+            if (line.startsWith("0::")) {
+                path = line.substring(3);
+            }
+        }
+        String dir = resolve(ROOT, path, "cpu.max");
+        long quota = -1, period = -1;
+        String cpuMax = readFirstLine(dir + "/cpu.max");
+        if (nonNull(cpuMax)) {
+            String[] parts = cpuMax.trim().split("\\s+");
+            quota = "max".equals(parts[0]) ? -1 : Long.parseLong(parts[0]);
+            period = parts.length > 1 ? Long.parseLong(parts[1]) : 100_000;
+        }
+        long memoryLimit = parseLimit(readFirstLine(resolve(ROOT, path, "memory.max") + "/memory.max"));
+        String cpuStat = dir + "/cpu.stat";
+        return new Cgroup(2, quota, period, memoryLimit, new File(cpuStat).exists() ? cpuStat : null);
+    }
+
+    /**
+     * 每行格式为 "$ID:$CONTROLLERS:$PATH"
+     */
+    private static Cgroup detectV1(List<String> lines) {
+        String cpuDir = null, memoryDir = null;
+        for (String line : lines) {
+            String[] parts = line.split(":", 3);
+            if (parts.length != 3) {
+                continue;
+            }
+            for (String controller : parts[1].split(",")) {
+                if ("cpu".equals(controller)) {
+                    cpuDir = mountOf(parts[1], controller, parts[2], "cpu.cfs_quota_us");
+                } else if ("memory".equals(controller)) {
+                    memoryDir = mountOf(parts[1], controller, parts[2], "memory.limit_in_bytes");
+                }
+            }
+        }
+        if (isNull(cpuDir) && isNull(memoryDir)) {
+            return new Cgroup(0, -1, -1, -1, null);
+        }
+
+        long quota = -1, period = -1;
+        String cpuStat = null;
+        if (nonNull(cpuDir)) {
+            quota = parseLimit(readFirstLine(cpuDir + "/cpu.cfs_quota_us"));
+            period = parseLimit(readFirstLine(cpuDir + "/cpu.cfs_period_us"));
+            cpuStat = new File(cpuDir, "cpu.stat").exists() ? cpuDir + "/cpu.stat" : null;
+        }
+        long memoryLimit = isNull(memoryDir) ? -1 :
+                parseLimit(readFirstLine(memoryDir + "/memory.limit_in_bytes"));
+        return new Cgroup(1, quota, period, memoryLimit, cpuStat);
+    }
+
+    /**
+     * 控制器可能单独挂载，也可能以 "cpu,cpuacct" 的形式合并挂载
+     */
+    private static String mountOf(String controllers, String controller, String path, String probe) {
+        for (String name : new String[]{controllers, controller}) {
+            File mount = new File(ROOT, name);
+            if (mount.isDirectory()) {
+                return resolve(mount.getPath(), path, probe);
+            }
+        }
+        return null;
+    }
+
+    private static String resolve(String mount, String path, String probe) {
+        File dir = new File(mount, path);
+        return new File(dir, probe).exists() ? dir.getPath() : mount;
+    }
+
+    private static String readFirstLine(String path) {
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+            return lines.isEmpty() ? null : lines.get(0);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * "max"、负数以及 v1 中接近 Long.MAX_VALUE 的值都表示没有限制
+     */
+    static long parseLimit(String text) {
+        if (isNull(text) || "max".equals(text.trim())) {
+            return -1;
+        }
+        long value = Long.parseLong(text.trim());
+        return value <= 0 || value >= Long.MAX_VALUE / 2 ? -1 : value;
+    }
+
+    /**
+     * 增量读取 cpu.stat，得到两次采样之间被限流的周期比例和限流时间。
+     * 非线程安全，只在推送线程中使用
+     */
+    public static final class ThrottleSampler {
+        private static final byte[] NR_PERIODS = "nr_periods ".getBytes();
+        private static final byte[] NR_THROTTLED = "nr_throttled ".getBytes();
+        private static final byte[] THROTTLED_USEC = "throttled_usec ".getBytes();
+        private static final byte[] THROTTLED_TIME = "throttled_time ".getBytes();
+
+        private final RandomAccessFile file;
+        private final boolean v2;
+        private final byte[] buf = new byte[1024];
+
+        private long prevPeriods = -1;
+        private long prevThrottled;
+        private long prevThrottledNanos;
+        private long prevNanos;
+
+        private double throttledRatio;
+        private double throttledMsPerSec;
+
+        ThrottleSampler(RandomAccessFile file, int version) {
+            this.file = file;
+            this.v2 = version == 2;
+        }
+
+        public void sample() throws IOException {
+            long now = System.nanoTime();
+            file.seek(0);
+            int n = 0, r;
+            while (n < buf.length && (r = file.read(buf, n, buf.length - n)) > 0) {
+                n += r;
+            }
+
+            long periods = ProcSampler.parseLong(buf, n, ProcSampler.indexAfter(buf, n, NR_PERIODS));
+            long throttled = ProcSampler.parseLong(buf, n, ProcSampler.indexAfter(buf, n, NR_THROTTLED));
+            long throttledNanos = v2 ?
+                    ProcSampler.parseLong(buf, n, ProcSampler.indexAfter(buf, n, THROTTLED_USEC)) * 1000 :
+                    ProcSampler.parseLong(buf, n, ProcSampler.indexAfter(buf, n, THROTTLED_TIME));
+
+            if (prevPeriods >= 0) {
+                long dPeriods = periods - prevPeriods;
+                throttledRatio = dPeriods > 0 ? (double) (throttled - prevThrottled) / dPeriods : 0;
+                throttledMsPerSec = now > prevNanos ? (throttledNanos - prevThrottledNanos) / 1e6 / ((now - prevNanos) / 1e9) : 0;
+            }
+            prevPeriods = periods;
+            prevThrottled = throttled;
+            prevThrottledNanos = throttledNanos;
+            prevNanos = now;
+        }
+
+        /**
+         * 上次采样以来被限流的调度周期比例 [0, 1]
+         */
+        public double getThrottledRatio() {
+            return throttledRatio;
+        }
+
+        /**
+         * 上次采样以来平均每秒被限流的毫秒数
+         */
+        public double getThrottledMsPerSec() {
+            return throttledMsPerSec;
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.aliware.tianchi.common.util;
 
+import org.apache.dubbo.common.Constants;
 import org.apache.dubbo.common.URL;
 import org.apache.dubbo.rpc.Invocation;
 import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.RpcException;
 
 import java.util.Arrays;
 
@@ -11,6 +13,11 @@ import java.util.Arrays;
  */
 public final class DubboUtil {
 
+    /**
+     * 网关写入的请求绝对截止时间（currentTimeMillis）
+     */
+    public static final String DEADLINE_MILLIS_KEY = "DEADLINE_MILLIS";
+
     private DubboUtil() {
         throw new InstantiationError("DubboUtil can't be instantiated");
     }
@@ -26,4 +33,36 @@ public final class DubboUtil {
                Arrays.toString(invocation.getParameterTypes());
     }
 
+    /**
+     * 服务端解码后的调用没有 invoker，用 path 代替接口名
+     */
+    public static String getServiceId(Invocation invocation) {
+        return invocation.getAttachment(Constants.PATH_KEY) + '#' +
+               invocation.getMethodName() +
+               Arrays.toString(invocation.getParameterTypes());
+    }
+
+    /**
+     * 服务端因过载拒绝或丢弃请求时回给网关的异常，网关按错误码识别为背压而不是实例故障
+     */
+    public static RpcException limitExceeded(String msg) {
+        return new RpcException(RpcException.LIMIT_EXCEEDED_EXCEPTION, msg);
+    }
+
+    public static boolean isLimitExceeded(Throwable t) {
+        return t instanceof RpcException && ((RpcException) t).getCode() == RpcException.LIMIT_EXCEEDED_EXCEPTION;
+    }
+
+    /**
+     * @param data 请求的 data，只有 {@link Invocation} 才可能带截止时间
+     * @return 没有截止时间时返回 0
+     */
+    public static long getDeadlineMillis(Object data) {
+        if (!(data instanceof Invocation)) {
+            return 0;
+        }
+        String deadline = ((Invocation) data).getAttachment(DEADLINE_MILLIS_KEY);
+        return deadline == null ? 0 : Long.parseLong(deadline);
+    }
+
 }
@@ -0,0 +1,125 @@
+package com.aliware.tianchi.common.util;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+
+/**
+ * 通过 GC 通知统计停顿时间和次数，并读取老年代占用率用于预测即将发生的 GC
+ * <p>
+ * 只统计停住应用线程的收集器：ZGC、Shenandoah 的 "xxx Pauses"，以及 Serial、Parallel、ParNew、G1 的新生代和老年代收集器；
+ * 并发周期（"ZGC Cycles"、"Shenandoah Cycles"、"G1 Concurrent GC"、ConcurrentMarkSweep）的耗时大部分与应用线程并行，不计入停顿
+ *
+ * @author yangxf
+ */
+public final class GcMonitor implements NotificationListener {
+
+    private final AtomicLong pauseMillis = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+
+    /**
+     * 老年代内存池，找不到时为 null
+     */
+    private final MemoryPoolMXBean oldGen;
+
+    private long prevNanos = System.nanoTime();
+    private long prevPauseMillis;
+    private long prevPauses;
+
+    private double pauseMsPerSec;
+    private double pausesPerSec;
+
+    public GcMonitor() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+            }
+        }
+        MemoryPoolMXBean old = null;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            String name = pool.getName();
+            if (pool.getType() == MemoryType.HEAP && (name.contains("Old") || name.contains("Tenured"))) {
+                old = pool;
+            }
+        }
+        oldGen = old;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        if (!isPause(info.getGcName())) {
+            return;
+        }
+        pauseMillis.addAndGet(info.getGcInfo().getDuration());
+        pauses.incrementAndGet();
+    }
+
+    static boolean isPause(String gcName) {
+        if (gcName.endsWith("Pauses")) {
+            return true;
+        }
+        return !gcName.endsWith("Cycles") && !gcName.contains("Concurrent");
+    }
+
+    /**
+     * 计算上次采样以来的停顿速率，只在推送线程中调用
+     */
+    public void sample() {
+        long now = System.nanoTime();
+        long totalPauseMillis = pauseMillis.get();
+        long totalPauses = pauses.get();
+        double seconds = (now - prevNanos) / 1e9;
+        if (seconds > 0) {
+            pauseMsPerSec = (totalPauseMillis - prevPauseMillis) / seconds;
+            pausesPerSec = (totalPauses - prevPauses) / seconds;
+        }
+        prevNanos = now;
+        prevPauseMillis = totalPauseMillis;
+        prevPauses = totalPauses;
+    }
+
+    /**
+     * 上次采样以来平均每秒的停顿毫秒数
+     */
+    public double getPauseMsPerSec() {
+        return pauseMsPerSec;
+    }
+
+    /**
+     * 上次采样以来平均每秒的停顿次数
+     */
+    public double getPausesPerSec() {
+        return pausesPerSec;
+    }
+
+    /**
+     * 老年代已用 / 上限（没有上限时用已提交），找不到老年代时返回 0
+     */
+    public double getOldGenOccupancy() {
+        if (isNull(oldGen)) {
+            return 0;
+        }
+        MemoryUsage usage = oldGen.getUsage();
+        if (isNull(usage)) {
+            return 0;
+        }
+        long max = usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+        return max > 0 ? (double) usage.getUsed() / max : 0;
+    }
+}
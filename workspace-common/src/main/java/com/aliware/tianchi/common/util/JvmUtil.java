@@ -1,9 +1,12 @@
 package com.aliware.tianchi.common.util;
 
+import java.lang.management.CompilationMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.ThreadMXBean;
 
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
+
 /**
  * @author yangxf
  */
@@ -52,6 +55,19 @@ public final class JvmUtil {
         return MEMORY.getNonHeapMemoryUsage().getMax();
     }
 
+    /**
+     * JIT 累计编译耗时（毫秒），不支持统计时返回 -1
+     */
+    public static long getTotalCompilationTime() {
+        return nonNull(COMPILATION) && COMPILATION.isCompilationTimeMonitoringSupported() ?
+                COMPILATION.getTotalCompilationTime() : -1;
+    }
+
     private static final ThreadMXBean THREAD = ManagementFactory.getThreadMXBean();
     private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    /**
+     * 纯解释执行时为 null
+     */
+    private static final CompilationMXBean COMPILATION = ManagementFactory.getCompilationMXBean();
 }
@@ -1,5 +1,8 @@
 package com.aliware.tianchi.common.util;
 
+import java.util.Arrays;
+import java.util.Comparator;
+
 /**
  * @author yangxf
  */
@@ -33,5 +36,46 @@ public final class MathUtil {
     public static boolean isApproximate(double left, double right, double error) {
         return left <= right + error && right <= left + error;
     }
+    /**
+     * 按最大最小公平原则分配容量：需求小的先满足，剩余容量在其余需求间均分；
+     * 需求总和小于容量时，多出的部分平均分给所有人，保证容量全部分出去。
+     * 容量不少于人数时先给每人保底 1，再对剩余容量做公平划分，总和始终等于容量
+     *
+     * @param capacity 总容量
+     * @param demands  每个消费者的需求
+     * @return 每个消费者分到的容量，容量不少于人数时至少为 1
+     */
+    public static long[] maxMinFairShare(long capacity, double[] demands) {
+        int n = demands.length;
+        long[] shares = new long[n];
+        if (n == 0) {
+            return shares;
+        }
+        long total = Math.max(capacity, 0);
+        int floor = total >= n ? 1 : 0;
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> demands[i]));
+
+        long remaining = total - (long) floor * n;
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            long fair = remaining / (n - k);
+            long share = Math.min((long) Math.ceil(Math.max(demands[i] - floor, 0)), fair);
+            shares[i] = share;
+            remaining -= share;
+        }
+
+        long even = remaining / n;
+        long rest = remaining % n;
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            shares[i] += floor + even + (k >= n - rest ? 1 : 0);
+        }
+        return shares;
+    }
 
 }
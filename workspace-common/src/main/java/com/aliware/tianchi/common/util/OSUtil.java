@@ -1,13 +1,14 @@
 package com.aliware.tianchi.common.util;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
 
 /**
  * @author yangxf
@@ -37,10 +38,16 @@ public final class OSUtil {
         return OS.getVersion();
     }
 
+    /**
+     * JVM 的可用处理器数，再按 cgroup 的 CPU 配额向上取整限制
+     */
     public static int getAvailableProcessors() {
-        return OS.getAvailableProcessors();
+        return AVAILABLE_PROCESSORS;
     }
 
+    /**
+     * 宿主机的 CPU 数
+     */
     public static int getNumberOfCpus() {
         return CPUS;
     }
@@ -50,90 +57,76 @@ public final class OSUtil {
     }
 
     public static long getCommittedVirtualMemorySize() {
-        return getFromOperatingSystem("getCommittedVirtualMemorySize", long.class);
+        return nonNull(SUN_OS) ? SUN_OS.getCommittedVirtualMemorySize() : -1;
     }
 
     public static long getTotalSwapSpaceSize() {
-        return getFromOperatingSystem("getTotalSwapSpaceSize", long.class);
+        return nonNull(SUN_OS) ? SUN_OS.getTotalSwapSpaceSize() : -1;
     }
 
     public static long getFreeSwapSpaceSize() {
-        return getFromOperatingSystem("getFreeSwapSpaceSize", long.class);
+        return nonNull(SUN_OS) ? SUN_OS.getFreeSwapSpaceSize() : -1;
     }
 
     public static long getProcessCpuTime() {
-        return getFromOperatingSystem("getProcessCpuTime", long.class);
+        return nonNull(SUN_OS) ? SUN_OS.getProcessCpuTime() : -1;
     }
 
     public static long getFreePhysicalMemorySize() {
-        return getFromOperatingSystem("getFreePhysicalMemorySize", long.class);
+        return nonNull(SUN_OS) ? SUN_OS.getFreePhysicalMemorySize() : -1;
     }
 
     public static long getTotalPhysicalMemorySize() {
-        return getFromOperatingSystem("getTotalPhysicalMemorySize", long.class);
+        return nonNull(SUN_OS) ? SUN_OS.getTotalPhysicalMemorySize() : -1;
     }
 
     public static long getOpenFileDescriptorCount() {
-        return getFromOperatingSystem("getOpenFileDescriptorCount", long.class);
+        return nonNull(UNIX_OS) ? UNIX_OS.getOpenFileDescriptorCount() : -1;
     }
 
     public static long getMaxFileDescriptorCount() {
-        return getFromOperatingSystem("getMaxFileDescriptorCount", long.class);
+        return nonNull(UNIX_OS) ? UNIX_OS.getMaxFileDescriptorCount() : -1;
     }
 
     public static double getSystemCpuLoad() {
-        return getFromOperatingSystem("getSystemCpuLoad", double.class);
+        return nonNull(SUN_OS) ? SUN_OS.getSystemCpuLoad() : -1;
     }
 
     public static double getProcessCpuLoad() {
-        return getFromOperatingSystem("getProcessCpuLoad", double.class);
+        return nonNull(SUN_OS) ? SUN_OS.getProcessCpuLoad() : -1;
     }
 
-    @SuppressWarnings("unchecked")
-    private static <T> T getFromOperatingSystem(String methodName, Class<T> type) {
+    private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+
+    /**
+     * 非 HotSpot 的 JVM 上可能为 null，对应的方法返回 -1
+     */
+    private static final com.sun.management.OperatingSystemMXBean SUN_OS =
+            OS instanceof com.sun.management.OperatingSystemMXBean ? (com.sun.management.OperatingSystemMXBean) OS : null;
+    private static final com.sun.management.UnixOperatingSystemMXBean UNIX_OS =
+            OS instanceof com.sun.management.UnixOperatingSystemMXBean ? (com.sun.management.UnixOperatingSystemMXBean) OS : null;
+    private static final int CPUS = countOnlineCpus();
+    private static final int AVAILABLE_PROCESSORS = Cgroup.CURRENT.getEffectiveCpus(OS.getAvailableProcessors());
+
+    /**
+     * 宿主机在线的 CPU 数，/sys/devices/system/cpu/online 的格式如 "0-3,8,10-11"；读不到时返回 JVM 的可用处理器数
+     */
+    private static int countOnlineCpus() {
         try {
-            final Method method = OS.getClass().getMethod(methodName, (Class<?>[]) null);
-            method.setAccessible(true);
-            return (T) method.invoke(OS, (Object[]) null);
-        } catch (final InvocationTargetException e) {
-            if (e.getCause() instanceof Error) {
-                throw (Error) e.getCause();
-            } else if (e.getCause() instanceof RuntimeException) {
-                throw (RuntimeException) e.getCause();
-            }
-            throw new IllegalStateException(e.getCause());
-        } catch (final NoSuchMethodException e) {
-            throw new IllegalArgumentException(e);
-        } catch (final IllegalAccessException e) {
-            throw new IllegalStateException(e);
+            List<String> lines = Files.readAllLines(Paths.get("/sys/devices/system/cpu/online"), StandardCharsets.UTF_8);
+            return lines.isEmpty() ? OS.getAvailableProcessors() : parseCpuList(lines.get(0));
+        } catch (IOException | RuntimeException e) {
+            return OS.getAvailableProcessors();
         }
     }
 
-    private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
-    private static final int CPUS;
-
-    static {
-        int cpus = OS.getAvailableProcessors();
-        try {
-            // todo: non linux
-            if (sun.awt.OSInfo.getOSType() == sun.awt.OSInfo.OSType.LINUX) {
-                String[] command = {"/bin/sh", "-c", "cat /proc/cpuinfo | grep process | wc -l"};
-                Process exec = Runtime.getRuntime().exec(command);
-                try (InputStream is = exec.getInputStream();
-                     InputStreamReader isr = new InputStreamReader(is);
-                     BufferedReader br = new BufferedReader(isr)) {
-                    String line = br.readLine();
-                    if (line != null) {
-                        cpus = Integer.parseInt(line.replaceAll("[^0-9]", ""));
-                    }
-                } finally {
-                    exec.destroy();
-                }
-            }
-        } catch (IOException e) {
-            // ...
-        } finally {
-            CPUS = cpus;
+    static int parseCpuList(String text) {
+        int cpus = 0;
+        for (String range : text.trim().split(",")) {
+            int dash = range.indexOf('-');
+            cpus += dash < 0 ? 1 :
+                    Integer.parseInt(range.substring(dash + 1)) - Integer.parseInt(range.substring(0, dash)) + 1;
         }
+        return cpus;
     }
 }
@@ -0,0 +1,229 @@
+package com.aliware.tianchi.common.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+
+/**
+ * 基于 /proc 的运行时采样，只在 linux 上可用
+ * <p>
+ * stat 和 loadavg 只打开一次，每次从头重新读取到复用的缓冲区中并按字节解析，不反射；
+ * CPU 使用率、运行队列长度和上下文切换速率按 EWMA 增量平滑。
+ * <ul>
+ * <li>/proc/self/stat：进程的 utime + stime</li>
+ * <li>/proc/loadavg：处于运行态的任务数（整个系统，不含采样线程自己）</li>
+ * <li>/proc/self/task/*&#47;status：各线程自愿与非自愿上下文切换次数之和；/proc/self/status 只有线程组 leader
+ * （JVM 里几乎空闲的启动线程）一个线程的计数，没有意义。线程随时创建和退出，每次采样都要列目录、逐个打开，
+ * 退出线程的计数会丢失，差值为负时按 0 计</li>
+ * </ul>
+ * 非线程安全，只在推送线程中使用
+ *
+ * @author yangxf
+ */
+public final class ProcSampler {
+
+    /**
+     * USER_HZ，linux 上几乎都是 100，读取 getconf 需要 fork
+     */
+    private static final long TICK_NANOS = 10_000_000L;
+
+    private static final byte[] VOLUNTARY = "\nvoluntary_ctxt_switches:".getBytes();
+    private static final byte[] NONVOLUNTARY = "\nnonvoluntary_ctxt_switches:".getBytes();
+
+    private static final File TASKS = new File("/proc/self/task");
+
+    private final RandomAccessFile stat;
+    private final RandomAccessFile loadavg;
+    private final byte[] buf = new byte[4096];
+
+    private final double alpha;
+    private final int cpus;
+
+    private long prevNanos;
+    private long prevCpuTicks = -1;
+    private long prevSwitches = -1;
+
+    private double processCpuLoad;
+    private double runQueue;
+    private double contextSwitchRate;
+
+    private ProcSampler(RandomAccessFile stat, RandomAccessFile loadavg, double alpha, int cpus) {
+        this.stat = stat;
+        this.loadavg = loadavg;
+        this.alpha = alpha;
+        this.cpus = Math.max(1, cpus);
+    }
+
+    /**
+     * @param window EWMA 的等效窗口（采样次数）
+     * @param cpus   计算 CPU 使用率时的 CPU 数
+     * @return 不是 linux 或没有权限时返回 null
+     */
+    public static ProcSampler open(int window, int cpus) {
+        RandomAccessFile stat = null, loadavg = null;
+        try {
+            stat = new RandomAccessFile("/proc/self/stat", "r");
+            loadavg = new RandomAccessFile("/proc/loadavg", "r");
+            ProcSampler sampler = new ProcSampler(stat, loadavg, 2d / (Math.max(1, window) + 1), cpus);
+            sampler.sample();
+            return sampler;
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(stat);
+            closeQuietly(loadavg);
+            return null;
+        }
+    }
+
+    public void sample() throws IOException {
+        long now = System.nanoTime();
+
+        long cpuTicks = parseCpuTicks(buf, read(stat));
+        long running = parseRunning(buf, read(loadavg));
+        long switches = sumSwitches();
+
+        if (prevCpuTicks >= 0 && now > prevNanos) {
+            double elapsed = now - prevNanos;
+            processCpuLoad = ewma(processCpuLoad, (cpuTicks - prevCpuTicks) * TICK_NANOS / elapsed / cpus);
+            contextSwitchRate = ewma(contextSwitchRate, Math.max(0, switches - prevSwitches) * 1e9 / elapsed);
+            runQueue = ewma(runQueue, Math.max(0, running - 1));
+        } else {
+            runQueue = Math.max(0, running - 1);
+        }
+        prevNanos = now;
+        prevCpuTicks = cpuTicks;
+        prevSwitches = switches;
+    }
+
+    /**
+     * 进程 CPU 使用率，按 cpus 归一化到 [0, 1]
+     */
+    public double getProcessCpuLoad() {
+        return Math.min(1d, processCpuLoad);
+    }
+
+    public double getRunQueue() {
+        return runQueue;
+    }
+
+    /**
+     * 每秒上下文切换次数
+     */
+    public double getContextSwitchRate() {
+        return contextSwitchRate;
+    }
+
+    private double ewma(double prev, double value) {
+        return prev + alpha * (value - prev);
+    }
+
+    private long sumSwitches() throws IOException {
+        String[] tids = TASKS.list();
+        if (isNull(tids)) {
+            throw new IOException("can't list " + TASKS);
+        }
+        long sum = 0;
+        for (String tid : tids) {
+            try (RandomAccessFile status = new RandomAccessFile("/proc/self/task/" + tid + "/status", "r")) {
+                int n = read(status);
+                sum += parseLong(buf, n, indexAfter(buf, n, VOLUNTARY)) +
+                       parseLong(buf, n, indexAfter(buf, n, NONVOLUNTARY));
+            } catch (FileNotFoundException e) {
+                // 线程在列目录之后退出
+            }
+        }
+        return sum;
+    }
+
+    private int read(RandomAccessFile file) throws IOException {
+        file.seek(0);
+        int n = 0, r;
+        while (n < buf.length && (r = file.read(buf, n, buf.length - n)) > 0) {
+            n += r;
+        }
+        return n;
+    }
+
+    /**
+     * comm 中可能有空格和括号，从最后一个 ')' 之后开始数：state 是第 0 个字段，utime、stime 是第 11、12 个
+     */
+    static long parseCpuTicks(byte[] buf, int n) {
+        int i = n - 1;
+        while (i >= 0 && buf[i] != ')') {
+            i--;
+        }
+        if (i < 0) {
+            throw new IllegalArgumentException("illegal /proc/self/stat");
+        }
+        i = skipFields(buf, n, i + 1, 11);
+        long utime = parseLong(buf, n, i);
+        i = skipFields(buf, n, i, 1);
+        long stime = parseLong(buf, n, i);
+        return utime + stime;
+    }
+
+    /**
+     * 格式：load1 load5 load15 running/total lastPid
+     */
+    static long parseRunning(byte[] buf, int n) {
+        return parseLong(buf, n, skipFields(buf, n, 0, 3));
+    }
+
+    /**
+     * 跳过 fields 个以空格分隔的字段，返回下一个字段的开始位置
+     */
+    private static int skipFields(byte[] buf, int n, int i, int fields) {
+        for (int k = 0; k < fields; k++) {
+            while (i < n && buf[i] == ' ') {
+                i++;
+            }
+            while (i < n && buf[i] != ' ') {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    static int indexAfter(byte[] buf, int n, byte[] key) {
+        outer:
+        for (int i = 0; i + key.length <= n; i++) {
+            for (int k = 0; k < key.length; k++) {
+                if (buf[i + k] != key[k]) {
+                    continue outer;
+                }
+            }
+            return i + key.length;
+        }
+        throw new IllegalArgumentException("missing " + new String(key).trim());
+    }
+
+    /**
+     * 跳过前导空白，解析到第一个非数字字符为止
+     */
+    static long parseLong(byte[] buf, int n, int i) {
+        while (i < n && (buf[i] == ' ' || buf[i] == '\t')) {
+            i++;
+        }
+        long value = 0;
+        int start = i;
+        for (; i < n && buf[i] >= '0' && buf[i] <= '9'; i++) {
+            value = value * 10 + (buf[i] - '0');
+        }
+        if (i == start) {
+            throw new IllegalArgumentException("not a number at " + start);
+        }
+        return value;
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
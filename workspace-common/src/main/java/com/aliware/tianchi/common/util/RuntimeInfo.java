@@ -1,15 +1,19 @@
 package com.aliware.tianchi.common.util;
 
-import java.util.stream.Stream;
-
 import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
 import static com.aliware.tianchi.common.util.ObjectUtil.isEmpty;
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
 
 /**
  * @author yangxf
  */
 public final class RuntimeInfo {
-    private static final int FIELDS = 6;
+    /**
+     * 第 7、8 个字段（运行队列、上下文切换速率）和第 9 到 11 个字段（GC）是后加的，兼容旧格式
+     */
+    private static final int FIELDS = 11;
+    private static final int SCHED_FIELDS = 8;
+    private static final int OLD_FIELDS = 6;
     private static final String SEPARATOR = "_";
 
     private final long timestamp;
@@ -23,23 +27,66 @@ public final class RuntimeInfo {
     private final int threadCount;
     private final int daemonThreadCount;
 
+    // os scheduler metric
+
+    private final double runQueue;
+    private final double contextSwitchRate;
+
+    // gc metric
+
+    private final double gcPauseMsPerSec;
+    private final double gcPausesPerSec;
+    private final double oldGenOccupancy;
+
     public RuntimeInfo() {
+        this(null, null);
+    }
+
+    /**
+     * 使用 {@link ProcSampler} 中已经平滑过的值和 {@link GcMonitor} 最近一次采样的值
+     *
+     * @param sampler 为 null 时 CPU 使用率取自 OperatingSystemMXBean
+     * @param gc      为 null 时没有 GC 信息
+     */
+    public RuntimeInfo(ProcSampler sampler, GcMonitor gc) {
         this(System.currentTimeMillis(),
              OSUtil.getNumberOfCpus(),
              OSUtil.getAvailableProcessors(),
-             OSUtil.getProcessCpuLoad(),
+             nonNull(sampler) ? sampler.getProcessCpuLoad() : OSUtil.getProcessCpuLoad(),
              JvmUtil.getThreadCount(),
-             JvmUtil.getDaemonThreadCount()
+             JvmUtil.getDaemonThreadCount(),
+             nonNull(sampler) ? sampler.getRunQueue() : 0,
+             nonNull(sampler) ? sampler.getContextSwitchRate() : 0,
+             nonNull(gc) ? gc.getPauseMsPerSec() : 0,
+             nonNull(gc) ? gc.getPausesPerSec() : 0,
+             nonNull(gc) ? gc.getOldGenOccupancy() : 0
             );
     }
 
     public RuntimeInfo(long timestamp, int cpus, int availableProcessors, double processCpuLoad, int threadCount, int daemonThreadCount) {
+        this(timestamp, cpus, availableProcessors, processCpuLoad, threadCount, daemonThreadCount, 0, 0);
+    }
+
+    public RuntimeInfo(long timestamp, int cpus, int availableProcessors, double processCpuLoad, int threadCount, int daemonThreadCount,
+                       double runQueue, double contextSwitchRate) {
+        this(timestamp, cpus, availableProcessors, processCpuLoad, threadCount, daemonThreadCount, runQueue, contextSwitchRate,
+             0, 0, 0);
+    }
+
+    public RuntimeInfo(long timestamp, int cpus, int availableProcessors, double processCpuLoad, int threadCount, int daemonThreadCount,
+                       double runQueue, double contextSwitchRate,
+                       double gcPauseMsPerSec, double gcPausesPerSec, double oldGenOccupancy) {
         this.timestamp = timestamp;
         this.cpus = cpus;
         this.availableProcessors = availableProcessors;
         this.processCpuLoad = processCpuLoad;
         this.threadCount = threadCount;
         this.daemonThreadCount = daemonThreadCount;
+        this.runQueue = runQueue;
+        this.contextSwitchRate = contextSwitchRate;
+        this.gcPauseMsPerSec = gcPauseMsPerSec;
+        this.gcPausesPerSec = gcPausesPerSec;
+        this.oldGenOccupancy = oldGenOccupancy;
     }
 
     public static RuntimeInfo fromString(String formatText) {
@@ -61,7 +108,12 @@ public final class RuntimeInfo {
                availableProcessors + SEPARATOR +
                ((int) (processCpuLoad * 10000)) / 10000.00d + SEPARATOR +
                threadCount + SEPARATOR +
-               daemonThreadCount;
+               daemonThreadCount + SEPARATOR +
+               ((int) (runQueue * 100)) / 100.00d + SEPARATOR +
+               (long) contextSwitchRate + SEPARATOR +
+               ((int) (gcPauseMsPerSec * 100)) / 100.00d + SEPARATOR +
+               ((int) (gcPausesPerSec * 100)) / 100.00d + SEPARATOR +
+               ((int) (oldGenOccupancy * 10000)) / 10000.00d;
     }
 
     public double getProcessCpuLoad() {
@@ -93,10 +145,43 @@ public final class RuntimeInfo {
         return daemonThreadCount;
     }
 
+    public double getRunQueue() {
+        return runQueue;
+    }
+
+    /**
+     * 每秒上下文切换次数
+     */
+    public double getContextSwitchRate() {
+        return contextSwitchRate;
+    }
+
+    /**
+     * 最近一个采样周期内平均每秒的 GC 停顿毫秒数
+     */
+    public double getGcPauseMsPerSec() {
+        return gcPauseMsPerSec;
+    }
+
+    /**
+     * 最近一个采样周期内平均每秒的 GC 停顿次数
+     */
+    public double getGcPausesPerSec() {
+        return gcPausesPerSec;
+    }
+
+    /**
+     * 老年代占用率 [0, 1]
+     */
+    public double getOldGenOccupancy() {
+        return oldGenOccupancy;
+    }
+
 
     private static RuntimeInfo newRuntimeInfo(String[] values) {
 
-        if (values.length != FIELDS) {
+        int n = values.length;
+        if (n != FIELDS && n != SCHED_FIELDS && n != OLD_FIELDS) {
             throw new IllegalArgumentException("the format text is like com.aliware.tianchi.common.util.RuntimeInfo#toString()");
         }
         return new RuntimeInfo(Long.parseLong(values[0]),
@@ -104,7 +189,12 @@ public final class RuntimeInfo {
                                Integer.parseInt(values[2]),
                                Double.parseDouble(values[3]),
                                Integer.parseInt(values[4]),
-                               Integer.parseInt(values[5]));
+                               Integer.parseInt(values[5]),
+                               n > 6 ? Double.parseDouble(values[6]) : 0,
+                               n > 7 ? Double.parseDouble(values[7]) : 0,
+                               n > 8 ? Double.parseDouble(values[8]) : 0,
+                               n > 9 ? Double.parseDouble(values[9]) : 0,
+                               n > 10 ? Double.parseDouble(values[10]) : 0);
     }
 
     private static RuntimeInfo newRuntimeInfo(RuntimeInfo... infos) {
@@ -117,34 +207,26 @@ public final class RuntimeInfo {
             return infos[0];
         }
 
-        double[] array = Stream
-                .of(infos)
-                .map(RuntimeInfo::toNumArray)
-                .reduce((x, y) -> {
-                    for (int i = 0; i < x.length; i++) {
-                        x[i] += y[i];
-                    }
-                    return x;
-                })
-                .orElse(new double[FIELDS]);
-
-        for (int i = 0; i < array.length; i++) {
-            array[i] = array[i] / size;
+        double cpus = 0, availableProcessors = 0, processCpuLoad = 0, threadCount = 0, daemonThreadCount = 0,
+                runQueue = 0, contextSwitchRate = 0, gcPauseMsPerSec = 0, gcPausesPerSec = 0, oldGenOccupancy = 0;
+        for (RuntimeInfo info : infos) {
+            cpus += info.cpus;
+            availableProcessors += info.availableProcessors;
+            processCpuLoad += info.processCpuLoad;
+            threadCount += info.threadCount;
+            daemonThreadCount += info.daemonThreadCount;
+            runQueue += info.runQueue;
+            contextSwitchRate += info.contextSwitchRate;
+            gcPauseMsPerSec += info.gcPauseMsPerSec;
+            gcPausesPerSec += info.gcPausesPerSec;
+            oldGenOccupancy += info.oldGenOccupancy;
         }
 
         return new RuntimeInfo(
                 System.currentTimeMillis(),
-                (int) array[1], (int) array[2], array[3], (int) array[4], (int) array[5]);
-    }
-
-    private static double[] toNumArray(RuntimeInfo info) {
-        double[] numbers = new double[FIELDS];
-        numbers[0] = info.timestamp;
-        numbers[1] = info.cpus;
-        numbers[2] = info.availableProcessors;
-        numbers[3] = info.processCpuLoad;
-        numbers[4] = info.threadCount;
-        numbers[5] = info.daemonThreadCount;
-        return numbers;
+                (int) (cpus / size), (int) (availableProcessors / size), processCpuLoad / size,
+                (int) (threadCount / size), (int) (daemonThreadCount / size),
+                runQueue / size, contextSwitchRate / size,
+                gcPauseMsPerSec / size, gcPausesPerSec / size, oldGenOccupancy / size);
     }
 }
\ No newline at end of file
@@ -2,10 +2,12 @@ package com.aliware.tianchi;
 
 import com.aliware.tianchi.common.metric.SnapshotStats;
 import com.aliware.tianchi.util.LBHelper;
+import com.aliware.tianchi.util.StatsIngestor;
 import org.apache.dubbo.common.logger.Logger;
 import org.apache.dubbo.common.logger.LoggerFactory;
 import org.apache.dubbo.rpc.listener.CallbackListener;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.aliware.tianchi.common.util.ObjectUtil.nonEmpty;
@@ -22,34 +24,44 @@ public class CallbackListenerImpl implements CallbackListener {
     private static final Logger logger = LoggerFactory.getLogger(CallbackListenerImpl.class);
     private static final long START = System.nanoTime();
 
+    /**
+     * 推送在独立线程上合并、批量更新，回调线程只做入队
+     */
+    private static final StatsIngestor INGESTOR = new StatsIngestor("stats-ingest", CallbackListenerImpl::update);
+
     @Override
     public void receiveServerMsg(String msg) {
         if (nonEmpty(msg)) {
-            try {
-                SnapshotStats stats = SnapshotStats.fromString(msg);
-
-                LBHelper.CUSTOM.updateInstanceStats(stats);
-
-                if (stats.getServiceId().contains("hash")) {
-                    logger.info("sec=" + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - START) +
-                                " UPDATE " + stats.getAddress() +
-                                ", epoch=" + stats.getEpoch() +
-                                ", tokens=" + LBHelper.CUSTOM.getStatsBucket(stats.getServiceId(), stats.getAddress()).remainTokens() +
-                                ", weight=" + stats.getWeight() +
-                                ", active=" + stats.getActiveCount() +
-                                ", ms=" + stats.intervalTimeMs() +
-                                ", threads=" + stats.getDomainThreads() +
-                                ", avg=" + stats.getAvgRTMs() +
-                                ", suc=" + stats.getNumberOfSuccesses() +
-                                ", fai=" + stats.getNumberOfFailures() +
-                                ", tpt=" + stats.getThroughput() +
-                                ", run=" + stats.getServerStats().getRuntimeInfo()
-                               );
-                }
-            } catch (Exception e) {
-                // ... 
-                logger.error("update error", e);
-            }
+            INGESTOR.offer(msg);
+        }
+    }
+
+    private static void update(List<SnapshotStats> batch) {
+        LBHelper.CUSTOM.updateInstanceStats(batch);
+
+        // 每个服务每次推送一行，服务多时量很大
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        for (SnapshotStats stats : batch) {
+            logger.debug("sec=" + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - START) +
+                         " UPDATE " + stats.getServiceId() + "@" + stats.getAddress() +
+                         ", epoch=" + stats.getEpoch() +
+                         ", tokens=" + LBHelper.CUSTOM.getStatsBucket(stats.getServiceId(), stats.getAddress()).remainTokens() +
+                         ", weight=" + stats.getWeight() +
+                         ", active=" + stats.getActiveCount() +
+                         ", ms=" + stats.intervalTimeMs() +
+                         ", threads=" + stats.getDomainThreads() +
+                         ", avg=" + stats.getAvgRTMs() +
+                         ", queue=" + stats.getAvgQueueMs() +
+                         ", suc=" + stats.getNumberOfSuccesses() +
+                         ", fai=" + stats.getNumberOfFailures() +
+                         ", rej=" + stats.getNumberOfRejections() +
+                         ", thr=" + stats.getThrottledRatio() +
+                         ", warm=" + stats.getWarmupFactor() +
+                         ", tpt=" + stats.getThroughput() +
+                         ", run=" + stats.getServerStats().getRuntimeInfo()
+                       );
         }
     }
 
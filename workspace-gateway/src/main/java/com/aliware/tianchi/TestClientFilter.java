@@ -1,6 +1,5 @@
 package com.aliware.tianchi;
 
-import com.aliware.tianchi.common.util.DubboUtil;
 import com.aliware.tianchi.util.LBHelper;
 import org.apache.dubbo.common.Constants;
 import org.apache.dubbo.common.extension.Activate;
@@ -17,15 +16,20 @@ import org.apache.dubbo.rpc.*;
 public class TestClientFilter implements Filter {
     @Override
     public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
-        return invoker.invoke(invocation);
+        LBHelper.CUSTOM.markStart(invoker, invocation);
+        try {
+            return invoker.invoke(invocation);
+        } catch (RpcException e) {
+            // 抛出异常时不会回调 onResponse
+            LBHelper.CUSTOM.onResponse(invoker, invocation, e);
+            throw e;
+        }
     }
 
     @Override
     public Result onResponse(Result result, Invoker<?> invoker, Invocation invocation) {
-        String address = DubboUtil.getIpAddress(invoker);
-        String serviceId = DubboUtil.getServiceId(invoker, invocation);
-        LBHelper.CUSTOM.releaseTokenIfRequire(serviceId, address, invocation);
+        LBHelper.CUSTOM.onResponse(invoker, invocation, result.getException());
         return result;
     }
 }
-    
\ No newline at end of file
+    
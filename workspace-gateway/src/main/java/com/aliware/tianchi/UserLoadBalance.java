@@ -3,8 +3,10 @@ package com.aliware.tianchi;
 import com.aliware.tianchi.common.conf.Configuration;
 import com.aliware.tianchi.common.metric.SnapshotStats;
 import com.aliware.tianchi.common.metric.StatsTokenBucket;
+import com.aliware.tianchi.common.util.AliasTable;
 import com.aliware.tianchi.common.util.DubboUtil;
 import com.aliware.tianchi.common.util.SmallPriorityQueue;
+import com.aliware.tianchi.util.ConsistentHashRing;
 import com.aliware.tianchi.util.LBHelper;
 import org.apache.dubbo.common.URL;
 import org.apache.dubbo.rpc.Invocation;
@@ -13,6 +15,7 @@ import org.apache.dubbo.rpc.RpcException;
 import org.apache.dubbo.rpc.cluster.LoadBalance;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
@@ -38,9 +41,19 @@ public class UserLoadBalance implements LoadBalance {
 
     private final Comparator<StatsTokenBucket> idleComparator;
 
+    /**
+     * key: serviceId
+     */
+    private final Map<String, ConsistentHashRing> rings = new ConcurrentHashMap<>();
+
+    /**
+     * 一致性哈希遍历用的数组，每个线程复用
+     */
+    private static final ThreadLocal<HashScratch> SCRATCH = ThreadLocal.withInitial(HashScratch::new);
+
     public UserLoadBalance() {
         conf = LBHelper.CUSTOM.getConfiguration();
-        comparator = Comparator.comparingDouble(b -> b.getStats().getAvgRTMs());
+        comparator = Comparator.comparingDouble(UserLoadBalance::avgRTMs);
         idleComparator = Comparator.comparingLong(StatsTokenBucket::remainTokens);
     }
 
@@ -57,26 +70,39 @@ public class UserLoadBalance implements LoadBalance {
         }
 
         LBHelper helper = LBHelper.CUSTOM;
-        Map<String, Invoker<T>> mapping = new HashMap<>();
-        StatsTokenBucket[] statsArray = new StatsTokenBucket[size];
+        Map<StatsTokenBucket, Invoker<T>> mapping = new HashMap<>();
         Queue<StatsTokenBucket> queue = size > HEAP_THRESHOLD ?
                 new PriorityQueue<>(comparator) :
                 new SmallPriorityQueue<>(size, comparator);
 
         String serviceId = DubboUtil.getServiceId(invokers.get(0), invocation);
-
-        Map<String, StatsTokenBucket> statsBucketGroup = helper.getStatsBucketGroup(serviceId);
+        long now = System.nanoTime();
+        StatsTokenBucket[] buckets = new StatsTokenBucket[size];
+        String[] addresses = conf.isConsistentHash() ? new String[size] : null;
 
         for (int i = 0; i < size; i++) {
             Invoker<T> invoker = invokers.get(i);
             String address = DubboUtil.getIpAddress(invoker);
-            StatsTokenBucket bucket = statsBucketGroup.get(address);
-            if (isNull(bucket.getStats())) {
-                return invokers.get(ThreadLocalRandom.current().nextInt(size));
+            if (nonNull(addresses)) {
+                addresses[i] = address;
+            }
+            // 没有推送的实例由网关侧的并发上限控制令牌
+            StatsTokenBucket bucket = helper.getStatsBucket(serviceId, address);
+            buckets[i] = bucket;
+            bucket.touch(now);
+            mapping.put(bucket, invoker);
+            // 已熔断的实例不参与选择
+            if (helper.isAvailable(bucket, now)) {
+                queue.offer(bucket);
+            }
+        }
+
+        if (conf.isConsistentHash()) {
+            int i = selectByHash(serviceId, addresses, buckets, invocation, now);
+            if (i >= 0) {
+                helper.ensureTokenReleased(buckets[i], url, invocation);
+                return invokers.get(i);
             }
-            mapping.put(address, invoker);
-            queue.offer(bucket);
-            statsArray[i] = bucket;
         }
 
         Queue<StatsTokenBucket> idleQueue = null;
@@ -102,8 +128,11 @@ public class UserLoadBalance implements LoadBalance {
                     continue;
                 }
 
-                helper.ensureTokenReleased(bucket, invocation);
-                return mapping.get(bucket.getStats().getAddress());
+                if (helper.tryAcquirePermission(bucket, now)) {
+                    helper.ensureTokenReleased(bucket, url, invocation);
+                    return mapping.get(bucket);
+                }
+                bucket.releaseToken();
             }
         }
 
@@ -113,32 +142,109 @@ public class UserLoadBalance implements LoadBalance {
                 break;
             }
             if (bucket.acquireToken()) {
-                helper.ensureTokenReleased(bucket, invocation);
-                return mapping.get(bucket.getStats().getAddress());
+                if (helper.tryAcquirePermission(bucket, now)) {
+                    helper.ensureTokenReleased(bucket, url, invocation);
+                    return mapping.get(bucket);
+                }
+                bucket.releaseToken();
             }
         }
 
         // weighted random ? or rejection ?
 
-        int total = 0;
-        int[] weights = new int[size];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        AliasTable<StatsTokenBucket> sampler = helper.getSampler(serviceId);
+        if (nonNull(sampler)) {
+            StatsTokenBucket bucket = sampler.sample(random);
+            Invoker<T> invoker = mapping.get(bucket);
+            if (nonNull(invoker) && helper.tryAcquirePermission(bucket, now)) {
+                return invoker;
+            }
+        }
+
+        // 从随机位置开始找第一个未熔断的实例，全部熔断时退化为随机
+        int offset = random.nextInt(size);
         for (int i = 0; i < size; i++) {
-            SnapshotStats stats = statsArray[i].getStats();
-            int weight = stats.getWeight();
-            total += weight;
-            weights[i] = total;
+            Invoker<T> invoker = invokers.get((offset + i) % size);
+            StatsTokenBucket bucket = helper.getStatsBucket(serviceId, DubboUtil.getIpAddress(invoker));
+            if (helper.tryAcquirePermission(bucket, now)) {
+                return invoker;
+            }
         }
+        return invokers.get(offset);
+    }
 
-        if (total <= 0) {
-            return invokers.get(ThreadLocalRandom.current().nextInt(size));
+    /**
+     * 有界负载一致性哈希：从参数在环上的位置顺时针找第一个未超过负载上限且能拿到令牌的实例
+     *
+     * @return 实例下标，找不到时返回 -1，退回到按 RT 选择
+     */
+    private int selectByHash(String serviceId, String[] addresses, StatsTokenBucket[] buckets,
+                             Invocation invocation, long now) {
+        Object[] args = invocation.getArguments();
+        if (isNull(args) || args.length == 0 || isNull(args[0])) {
+            return -1;
         }
 
-        int r = ThreadLocalRandom.current().nextInt(total);
-        for (int i = 0; i < size; i++) {
-            if (r < weights[i]) {
-                return invokers.get(i);
+        // 按地址和顺序判断是否需要重建，注册中心每次给出新的列表对象也能复用
+        ConsistentHashRing ring = rings.get(serviceId);
+        if (isNull(ring) || !ring.matches(addresses)) {
+            ring = ConsistentHashRing.build(addresses, conf.getHashReplicas());
+            rings.put(serviceId, ring);
+        }
+
+        long totalInflight = 0;
+        long totalTokens = 0;
+        for (StatsTokenBucket bucket : buckets) {
+            totalInflight += bucket.inflightTokens();
+            totalTokens += Math.max(0, bucket.getMaxTokens());
+        }
+
+        LBHelper helper = LBHelper.CUSTOM;
+        double factor = 1 + conf.getHashLoadFactor();
+        HashScratch scratch = SCRATCH.get().ensure(buckets.length);
+        int[] order = scratch.order;
+        int n = ring.walk(args[0].toString(), order, scratch.seen);
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            StatsTokenBucket bucket = buckets[i];
+            double share = totalTokens > 0 ?
+                    Math.max(0, bucket.getMaxTokens()) / (double) totalTokens : 1d / buckets.length;
+            if (bucket.inflightTokens() >= Math.ceil(factor * (totalInflight + 1) * share) ||
+                !helper.isAvailable(bucket, now) ||
+                !bucket.acquireToken()) {
+                continue;
+            }
+            if (helper.tryAcquirePermission(bucket, now)) {
+                return i;
+            }
+            bucket.releaseToken();
+        }
+        return -1;
+    }
+
+    private static final class HashScratch {
+
+        int[] order = new int[0];
+
+        boolean[] seen = new boolean[0];
+
+        HashScratch ensure(int n) {
+            if (order.length < n) {
+                order = new int[n];
+                seen = new boolean[n];
             }
+            return this;
         }
-        return invokers.get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    /**
+     * 推送的 RT 不含排队时间，加上排队时间后队列增长的实例会先于 RT 变化被排到后面；
+     * 正在或即将 GC 停顿的实例再加上 {@link LBHelper#gcPenaltyMs}
+     */
+    private static double avgRTMs(StatsTokenBucket bucket) {
+        SnapshotStats stats = bucket.getStats();
+        return isNull(stats) ? bucket.getLimiter().getAvgRTMs() :
+                stats.getAvgRTMs() + stats.getAvgQueueMs() + LBHelper.CUSTOM.gcPenaltyMs(bucket);
     }
 }
@@ -0,0 +1,119 @@
+package com.aliware.tianchi.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一致性哈希环，每个实例按地址放置 replicas 个虚拟节点
+ * <p>
+ * 构建后不可变，可以被多个线程无锁读取
+ *
+ * @author yangxf
+ */
+public final class ConsistentHashRing {
+
+    /**
+     * 构建时按 invokers 顺序排列的实例地址，地址或顺序变化后需要重建
+     */
+    private final String[] addresses;
+
+    private final long[] points;
+
+    /**
+     * 虚拟节点对应的实例下标
+     */
+    private final int[] owners;
+
+    private final int nodes;
+
+    private ConsistentHashRing(String[] addresses, long[] points, int[] owners) {
+        this.addresses = addresses;
+        this.points = points;
+        this.owners = owners;
+        this.nodes = addresses.length;
+    }
+
+    public static ConsistentHashRing build(List<String> addresses, int replicas) {
+        return build(addresses.toArray(new String[0]), replicas);
+    }
+
+    public static ConsistentHashRing build(String[] addresses, int replicas) {
+        int n = addresses.length;
+        long[][] entries = new long[n * replicas][];
+        for (int i = 0; i < n; i++) {
+            String address = addresses[i];
+            for (int r = 0; r < replicas; r++) {
+                entries[i * replicas + r] = new long[]{hash(address + "#" + r), i};
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+
+        long[] points = new long[entries.length];
+        int[] owners = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+        return new ConsistentHashRing(addresses.clone(), points, owners);
+    }
+
+    /**
+     * 从 key 所在位置顺时针依次返回不重复的实例下标
+     *
+     * @param order 长度不小于实例数，返回值为写入的个数
+     */
+    public int walk(String key, int[] order) {
+        return walk(key, order, new boolean[nodes]);
+    }
+
+    /**
+     * 同 {@link #walk(String, int[])}，由调用方提供标记数组以便复用
+     *
+     * @param seen 长度不小于实例数且全为 false，返回前恢复为全 false
+     */
+    public int walk(String key, int[] order, boolean[] seen) {
+        if (points.length == 0) {
+            return 0;
+        }
+        int pos = Arrays.binarySearch(points, hash(key));
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        int count = 0;
+        for (int i = 0; i < points.length && count < nodes; i++) {
+            int owner = owners[(pos + i) % points.length];
+            if (!seen[owner]) {
+                seen[owner] = true;
+                order[count++] = owner;
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            seen[order[k]] = false;
+        }
+        return count;
+    }
+
+    /**
+     * 地址和顺序都相同时环可以复用，每次请求都新建的 invokers 列表也不会导致重建
+     */
+    public boolean matches(String[] addresses) {
+        return Arrays.equals(this.addresses, addresses);
+    }
+
+    public int nodes() {
+        return nodes;
+    }
+
+    /**
+     * String.hashCode 经过 64 位 fmix 打散，保证虚拟节点在环上分布均匀
+     */
+    static long hash(String key) {
+        long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
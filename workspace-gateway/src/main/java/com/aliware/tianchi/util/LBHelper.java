@@ -1,27 +1,96 @@
 package com.aliware.tianchi.util;
 
 import com.aliware.tianchi.common.conf.Configuration;
+import com.aliware.tianchi.common.metric.CircuitBreaker;
+import com.aliware.tianchi.common.metric.GradientLimiter;
 import com.aliware.tianchi.common.metric.SnapshotStats;
 import com.aliware.tianchi.common.metric.StatsTokenBucket;
+import com.aliware.tianchi.common.metric.TokenLease;
+import com.aliware.tianchi.common.util.AliasTable;
+import com.aliware.tianchi.common.util.DubboUtil;
+import com.aliware.tianchi.common.util.RuntimeInfo;
+import org.apache.dubbo.common.Constants;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
 import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.RpcException;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
 
 /**
  * @author yangxf
  */
 public final class LBHelper {
+    private static final Logger logger = LoggerFactory.getLogger(LBHelper.class);
+
     public static final LBHelper CUSTOM = new LBHelper(new Configuration());
 
-    private static final String TOKEN_RELEASE_KEY = "CURRENT_STATS_EPOCH";
+    private static final String TOKEN_LEASE_KEY = "TOKEN_LEASE";
+
+    private static final String START_NANOS_KEY = "LB_START_NANOS";
+
+    private static final String START_INFLIGHT_KEY = "LB_START_INFLIGHT";
 
     private Configuration configuration;
 
     private final Map<String, Map<String, StatsTokenBucket>> registry = new ConcurrentHashMap<>();
 
+    /**
+     * 按令牌上限加权的采样表，key: serviceId，只包含最近出现在 invokers 中的实例
+     */
+    private final Map<String, AliasTable<StatsTokenBucket>> samplers = new ConcurrentHashMap<>();
+
+    /**
+     * 令牌上限或实例集合变化、需要重建采样表的 serviceId，由调度线程重建，不占用请求线程
+     */
+    private final Set<String> dirtySamplers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 最近一次重建时各服务采样表中的实例，只在调度线程上读写
+     */
+    private final Map<String, Set<StatsTokenBucket>> sampledBuckets = new HashMap<>();
+
+    /**
+     * key: lease id
+     */
+    private final Map<Long, TokenLease> leases = new ConcurrentHashMap<>();
+
+    private final AtomicLong leaseIdGenerator = new AtomicLong();
+
+    private final LeaseTimerWheel leaseWheel;
+
+    private final ScheduledExecutorService scheduledExecutor;
+
     public LBHelper(Configuration configuration) {
         this.configuration = configuration;
+        long tickMs = configuration.getLeaseWheelTickMs();
+        leaseWheel = new LeaseTimerWheel(TimeUnit.MILLISECONDS.toNanos(tickMs), configuration.getLeaseWheelSize());
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lb-helper-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduledExecutor.scheduleWithFixedDelay(this::expireLeases, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        scheduledExecutor.scheduleWithFixedDelay(this::rebuildSamplers, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        long pushDelayMs = configuration.getStatsPushDelayMs();
+        scheduledExecutor.scheduleWithFixedDelay(this::checkStaleness, pushDelayMs, pushDelayMs, TimeUnit.MILLISECONDS);
     }
 
     public Map<String, StatsTokenBucket> getStatsBucketGroup(String serviceId) {
@@ -40,7 +109,8 @@ public final class LBHelper {
         Map<String, StatsTokenBucket> statsGroup = getStatsBucketGroup(serviceId);
         StatsTokenBucket bucket = statsGroup.get(address);
         if (bucket == null) {
-            StatsTokenBucket newBucket = new StatsTokenBucket();
+            StatsTokenBucket newBucket = new StatsTokenBucket(new GradientLimiter(configuration),
+                                                            new CircuitBreaker(configuration));
             bucket = statsGroup.putIfAbsent(address, newBucket);
             if (bucket == null) {
                 bucket = newBucket;
@@ -49,27 +119,328 @@ public final class LBHelper {
         return bucket;
     }
 
-    public synchronized void updateInstanceStats(SnapshotStats snapshotStats) {
+    /**
+     * 一次加锁更新一批推送
+     */
+    public synchronized void updateInstanceStats(List<SnapshotStats> batch) {
+        for (SnapshotStats snapshotStats : batch) {
+            updateInstanceStats(snapshotStats);
+        }
+    }
+
+    /**
+     * @return 推送比当前的旧（乱序到达）而被忽略时返回 false
+     */
+    public synchronized boolean updateInstanceStats(SnapshotStats snapshotStats) {
         String serviceId = snapshotStats.getServiceId();
         String address = snapshotStats.getAddress();
         StatsTokenBucket bucket = getStatsBucket(serviceId, address);
-        bucket.resetTokens(snapshotStats.getWeight());
+        SnapshotStats prev = bucket.getStats();
+        if (nonNull(prev) && snapshotStats.getEpoch() <= prev.getEpoch()) {
+            if (snapshotStats.startTimeMs() <= prev.startTimeMs()) {
+                return false;
+            }
+            // epoch 回退而统计窗口的开始时间前进，说明实例重启了
+            bucket.restartWarmup();
+        }
         bucket.setStats(snapshotStats);
+        resetTokens(serviceId, bucket, capacityOf(bucket));
+        return true;
     }
 
-    public void ensureTokenReleased(StatsTokenBucket bucket, Invocation invocation) {
-        invocation.getAttachments().put(TOKEN_RELEASE_KEY, "RELEASE");
+    public AliasTable<StatsTokenBucket> getSampler(String serviceId) {
+        return samplers.get(serviceId);
     }
 
-    public void releaseTokenIfRequire(String serviceId, String address, Invocation invocation) {
-        StatsTokenBucket bucket = getStatsBucket(serviceId, address);
-        String epoch = invocation.getAttachment(TOKEN_RELEASE_KEY, "");
-        if ("RELEASE".equals(epoch)) {
-            bucket.releaseToken();
+    /**
+     * 令牌上限：有推送时按 limiterWeightRatio 混合推送权重与网关侧并发上限，并按拒绝率缩小，没有推送时只用并发上限；
+     * CPU 限流只缩小网关侧的并发上限，推送权重在服务端的容量估计中已经按限流视为饱和，不再重复缩小；
+     * 再乘以 {@link #warmupRatio(StatsTokenBucket)} 和 {@link #freshnessRatio(StatsTokenBucket)}
+     */
+    public long capacityOf(StatsTokenBucket bucket) {
+        int limit = bucket.getLimiter().getLimit();
+        SnapshotStats stats = bucket.getStats();
+        long capacity;
+        if (isNull(stats)) {
+            capacity = limit;
+        } else {
+            double ratio = configuration.getLimiterWeightRatio();
+            double throttled = 1 - configuration.getThrottleWeightPenalty() * Math.min(1, stats.getThrottledRatio());
+            capacity = Math.round((ratio * limit * throttled + (1 - ratio) * stats.getWeight()) *
+                                  (1 - stats.getRejectionRate()));
+        }
+        return capacity <= 0 ? capacity :
+                Math.max(1, Math.round(capacity * warmupRatio(bucket) * freshnessRatio(bucket)));
+    }
+
+    /**
+     * 服务端正在频繁 GC 停顿或老年代即将占满时，选择时给 RT 加上的惩罚，让它暂时排到其他实例后面；
+     * 推送过期后不再惩罚
+     */
+    public double gcPenaltyMs(StatsTokenBucket bucket) {
+        SnapshotStats stats = bucket.getStats();
+        if (isNull(stats) || bucket.isStale()) {
+            return 0;
+        }
+        RuntimeInfo info = stats.getServerStats().getRuntimeInfo();
+        if (isNull(info)) {
+            return 0;
+        }
+        return info.getGcPauseMsPerSec() >= configuration.getGcPauseMsPerSecThreshold() ||
+               info.getOldGenOccupancy() >= configuration.getGcImminentOccupancy() ?
+                configuration.getGcPenaltyMs() : 0;
+    }
+
+    /**
+     * 推送过期后的可信比例，按半衰期从 1 衰减到 statsStaleFloorRatio
+     */
+    public double freshnessRatio(StatsTokenBucket bucket) {
+        long staleNanos = bucket.statsAgeNanos(System.nanoTime()) -
+                          TimeUnit.MILLISECONDS.toNanos(configuration.getStatsStaleAfterMs());
+        if (staleNanos <= 0) {
+            return 1d;
+        }
+        double floor = configuration.getStatsStaleFloorRatio();
+        double halfLives = staleNanos / (double) TimeUnit.MILLISECONDS.toNanos(configuration.getStatsStaleHalfLifeMs());
+        return floor + (1 - floor) * Math.pow(.5d, halfLives);
+    }
+
+    /**
+     * 慢启动比例，从实例第一次推送（或重启）起由 slowStartMinRatio 线性增长到 1；
+     * 没有推送的实例只由网关侧的并发上限控制，上限本身从 limiterInitialLimit 逐步增长，不再缩小
+     */
+    public double warmupRatio(StatsTokenBucket bucket) {
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getSlowStartWindowMs());
+        if (windowNanos <= 0 || !bucket.isWarmupStarted()) {
+            return 1d;
+        }
+        double min = configuration.getSlowStartMinRatio();
+        long elapsed = System.nanoTime() - bucket.getWarmupStartNanos();
+        if (elapsed >= windowNanos) {
+            return 1d;
+        }
+        return min + (1 - min) * elapsed / windowNanos;
+    }
+
+    /**
+     * 记录开始时间，并把调用超时换算成绝对截止时间传给服务端
+     */
+    public void markStart(Invoker<?> invoker, Invocation invocation) {
+        Map<String, String> attachments = invocation.getAttachments();
+        attachments.put(START_NANOS_KEY, Long.toString(System.nanoTime()));
+        // 并发上限按发出时的在途数判断是否需要增长，响应时的在途数已经混入了之后发出的请求
+        StatsTokenBucket bucket = getStatsBucket(DubboUtil.getServiceId(invoker, invocation), DubboUtil.getIpAddress(invoker));
+        attachments.put(START_INFLIGHT_KEY, Long.toString(bucket.inflightTokens()));
+        long timeoutMs = invoker.getUrl().getMethodParameter(invocation.getMethodName(),
+                                                             Constants.TIMEOUT_KEY, Constants.DEFAULT_TIMEOUT);
+        attachments.put(DubboUtil.DEADLINE_MILLIS_KEY, Long.toString(System.currentTimeMillis() + timeoutMs));
+    }
+
+    /**
+     * 选择前过滤已熔断的实例，不改变熔断器状态
+     */
+    public boolean isAvailable(StatsTokenBucket bucket, long nowNanos) {
+        CircuitBreaker breaker = bucket.getBreaker();
+        return isNull(breaker) || breaker.isAvailable(nowNanos);
+    }
+
+    /**
+     * 确定发往该实例前调用，熔断到期时只放行一个探测请求
+     */
+    public boolean tryAcquirePermission(StatsTokenBucket bucket, long nowNanos) {
+        CircuitBreaker breaker = bucket.getBreaker();
+        return isNull(breaker) || breaker.tryAcquirePermission(nowNanos);
+    }
+
+    /**
+     * 归还令牌，记录调用结果用于离群检测，并用客户端观察到的 RT 更新并发上限
+     *
+     * @param t 调用异常，没有异常时为 null
+     */
+    public void onResponse(Invoker<?> invoker, Invocation invocation, Throwable t) {
+        releaseTokenIfRequire(invocation);
+
+        long now = System.nanoTime();
+        String serviceId = DubboUtil.getServiceId(invoker, invocation);
+        StatsTokenBucket bucket = getStatsBucket(serviceId, DubboUtil.getIpAddress(invoker));
+        recordOutcome(serviceId, bucket, t, now);
+
+        String start = invocation.getAttachments().remove(START_NANOS_KEY);
+        String inflight = invocation.getAttachments().remove(START_INFLIGHT_KEY);
+        if (isNull(start) || isNull(inflight)) {
+            return;
+        }
+        long rtNanos = now - Long.parseLong(start);
+        if (bucket.getLimiter().onSample(rtNanos, Long.parseLong(inflight), isOverload(t)) &&
+            (isNull(bucket.getStats()) || configuration.getLimiterWeightRatio() > 0)) {
+            resetTokens(serviceId, bucket, capacityOf(bucket));
+        }
+    }
+
+    /**
+     * 将已获取的令牌登记为租约，租约在响应、异常或超时回收三者之一发生时归还
+     */
+    public void ensureTokenReleased(StatsTokenBucket bucket, URL url, Invocation invocation) {
+        long timeoutMs = url.getMethodParameter(invocation.getMethodName(), Constants.TIMEOUT_KEY, Constants.DEFAULT_TIMEOUT);
+        long deadlineNanos = System.nanoTime() +
+                             TimeUnit.MILLISECONDS.toNanos(timeoutMs + configuration.getTokenLeaseGraceMs());
+        TokenLease lease = bucket.newLease(leaseIdGenerator.incrementAndGet(), deadlineNanos);
+        leases.put(lease.getId(), lease);
+        leaseWheel.schedule(lease);
+        invocation.getAttachments().put(TOKEN_LEASE_KEY, Long.toString(lease.getId()));
+    }
+
+    public void releaseTokenIfRequire(Invocation invocation) {
+        String leaseId = invocation.getAttachments().remove(TOKEN_LEASE_KEY);
+        if (isNull(leaseId)) {
+            return;
+        }
+        TokenLease lease = leases.remove(Long.parseLong(leaseId));
+        if (nonNull(lease)) {
+            lease.release();
         }
     }
 
     public Configuration getConfiguration() {
         return configuration;
     }
+
+    /**
+     * 服务端的限流拒绝是正常的背压，不算作实例故障
+     */
+    void recordOutcome(String serviceId, StatsTokenBucket bucket, Throwable t, long nowNanos) {
+        CircuitBreaker breaker = bucket.getBreaker();
+        if (isNull(breaker)) {
+            return;
+        }
+        if (isNull(t) || isRejection(t)) {
+            breaker.onSuccess(nowNanos);
+        } else if (breaker.onFailure(nowNanos) && canEject(serviceId)) {
+            breaker.open(nowNanos);
+        }
+    }
+
+    /**
+     * 熔断后已熔断实例的比例不超过 outlierMaxEjectionPercent，至少保留一个实例
+     */
+    private boolean canEject(String serviceId) {
+        Map<String, StatsTokenBucket> group = getStatsBucketGroup(serviceId);
+        int size = group.size();
+        int ejected = 1;
+        for (StatsTokenBucket bucket : group.values()) {
+            CircuitBreaker breaker = bucket.getBreaker();
+            if (nonNull(breaker) && breaker.isEjected()) {
+                ejected++;
+            }
+        }
+        return ejected < size && ejected <= size * configuration.getOutlierMaxEjectionPercent();
+    }
+
+    /**
+     * 服务端过载拒绝或调用超时
+     */
+    private static boolean isOverload(Throwable t) {
+        if (isNull(t)) {
+            return false;
+        }
+        if (t instanceof RpcException && ((RpcException) t).isTimeout()) {
+            return true;
+        }
+        return isRejection(t);
+    }
+
+    /**
+     * 服务端限流、线程池满、服务隔离已满、排队超时或请求来不及在截止时间前完成，
+     * 服务端统一用 {@link DubboUtil#limitExceeded} 回复，按错误码识别，不依赖错误信息的文本
+     */
+    static boolean isRejection(Throwable t) {
+        return DubboUtil.isLimitExceeded(t);
+    }
+
+    private void resetTokens(String serviceId, StatsTokenBucket bucket, long tokens) {
+        long prev = bucket.getMaxTokens();
+        bucket.resetTokens(tokens);
+        if (prev != tokens) {
+            dirtySamplers.add(serviceId);
+        }
+    }
+
+    private boolean isLive(StatsTokenBucket bucket, long nowNanos) {
+        return nowNanos - bucket.getTouchNanos() <= TimeUnit.MILLISECONDS.toNanos(configuration.getSamplerLiveMs());
+    }
+
+    private void rebuildSamplers() {
+        if (dirtySamplers.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        Iterator<String> it = dirtySamplers.iterator();
+        while (it.hasNext()) {
+            String serviceId = it.next();
+            it.remove();
+            rebuildSampler(serviceId, now);
+        }
+    }
+
+    /**
+     * 只在调度线程上调用；已下线或被路由过滤掉的实例不会再被 touch，超过 samplerLiveMs 后不再进入采样表，
+     * 采样结果总能在当前的 invokers 中找到
+     */
+    private void rebuildSampler(String serviceId, long nowNanos) {
+        List<StatsTokenBucket> buckets = new ArrayList<>();
+        for (StatsTokenBucket bucket : getStatsBucketGroup(serviceId).values()) {
+            if (isLive(bucket, nowNanos)) {
+                buckets.add(bucket);
+            }
+        }
+        sampledBuckets.put(serviceId, new HashSet<>(buckets));
+        long[] weights = new long[buckets.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = buckets.get(i).getMaxTokens();
+        }
+        AliasTable<StatsTokenBucket> sampler = AliasTable.build(buckets, weights);
+        if (isNull(sampler)) {
+            samplers.remove(serviceId);
+        } else {
+            samplers.put(serviceId, sampler);
+        }
+    }
+
+    /**
+     * 推送过期的实例没有新的推送来触发重算令牌，由这里定时衰减；
+     * 顺带检查实例是否进出 samplerLiveMs，采样表中的实例集合变化时才重建
+     */
+    private void checkStaleness() {
+        long now = System.nanoTime();
+        long staleAfterNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getStatsStaleAfterMs());
+        for (Map.Entry<String, Map<String, StatsTokenBucket>> group : registry.entrySet()) {
+            String serviceId = group.getKey();
+            Set<StatsTokenBucket> sampled = sampledBuckets.getOrDefault(serviceId, Collections.emptySet());
+            for (Map.Entry<String, StatsTokenBucket> entry : group.getValue().entrySet()) {
+                StatsTokenBucket bucket = entry.getValue();
+                if (isLive(bucket, now) != sampled.contains(bucket)) {
+                    dirtySamplers.add(serviceId);
+                }
+                long age = bucket.statsAgeNanos(now);
+                if (age <= staleAfterNanos) {
+                    continue;
+                }
+                if (!bucket.isStale()) {
+                    bucket.setStale(true);
+                    logger.warn("stats of " + entry.getKey() + " for " + serviceId + " are stale, age=" +
+                                TimeUnit.NANOSECONDS.toMillis(age) + "ms");
+                }
+                synchronized (this) {
+                    // 与推送更新互斥，避免覆盖刚收到的新推送
+                    if (bucket.isStale()) {
+                        resetTokens(serviceId, bucket, capacityOf(bucket));
+                    }
+                }
+            }
+        }
+    }
+
+    private void expireLeases() {
+        leaseWheel.expire(System.nanoTime(), lease -> leases.remove(lease.getId()));
+    }
 }
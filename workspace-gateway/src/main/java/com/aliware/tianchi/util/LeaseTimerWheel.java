@@ -0,0 +1,78 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.common.metric.TokenLease;
+import com.aliware.tianchi.common.util.MathUtil;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * 回收过期租约的时间轮
+ * <p>
+ * 已正常归还的租约不主动从轮上删除，等轮到所在槽位时再顺带丢弃
+ *
+ * @author yangxf
+ */
+public class LeaseTimerWheel {
+
+    private final long tickNanos;
+    private final int mask;
+    private final Queue<TokenLease>[] wheel;
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * 下一个待处理的刻度，只由 {@link #expire(long, Consumer)} 的调用线程推进
+     */
+    private volatile long tick;
+
+    @SuppressWarnings("unchecked")
+    public LeaseTimerWheel(long tickNanos, int wheelSize) {
+        this.tickNanos = tickNanos;
+        int size = MathUtil.nextPowerOf2(wheelSize);
+        mask = size - 1;
+        wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public void schedule(TokenLease lease) {
+        long deadlineTick = Math.max((lease.getDeadlineNanos() - startNanos) / tickNanos, tick);
+        wheel[(int) (deadlineTick & mask)].offer(lease);
+    }
+
+    /**
+     * 推进到 nowNanos 并回收到期的租约
+     *
+     * @return 本次回收的租约数
+     */
+    public int expire(long nowNanos, Consumer<TokenLease> onExpired) {
+        long target = (nowNanos - startNanos) / tickNanos;
+        int expired = 0;
+        long t = tick;
+        for (; t <= target; t++) {
+            Iterator<TokenLease> it = wheel[(int) (t & mask)].iterator();
+            while (it.hasNext()) {
+                TokenLease lease = it.next();
+                if (lease.isReturned()) {
+                    it.remove();
+                } else if (lease.isExpired(nowNanos)) {
+                    it.remove();
+                    if (lease.release()) {
+                        expired++;
+                        onExpired.accept(lease);
+                    }
+                }
+            }
+            // 一圈走完，后面的槽位下一轮再处理
+            if (t - tick >= mask) {
+                t++;
+                break;
+            }
+        }
+        tick = t;
+        return expired;
+    }
+}
@@ -0,0 +1,102 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.common.metric.SnapshotStats;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
+
+/**
+ * 推送消息的合并与异步处理
+ * <p>
+ * 回调线程只把原始消息放进该实例（serviceId@address）的槽位，槽位由空变为非空时才入队并唤醒处理线程，
+ * 处理线程还没取走前到达的消息直接覆盖旧消息。处理线程一次取走所有就绪的槽位，解析后批量交给 sink。
+ * 回调线程上没有锁，也不解析消息
+ *
+ * @author yangxf
+ */
+public class StatsIngestor {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatsIngestor.class);
+
+    /**
+     * key: serviceId@address
+     */
+    private final Map<String, AtomicReference<String>> slots = new ConcurrentHashMap<>();
+
+    private final Queue<AtomicReference<String>> ready = new ConcurrentLinkedQueue<>();
+
+    private final Consumer<List<SnapshotStats>> sink;
+
+    private final Thread thread;
+
+    public StatsIngestor(String name, Consumer<List<SnapshotStats>> sink) {
+        checkNotNull(sink, "sink");
+        this.sink = sink;
+        thread = new Thread(this::loop, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 不阻塞，格式不对的消息直接丢弃
+     */
+    public void offer(String text) {
+        String key = SnapshotStats.keyOf(text);
+        if (isNull(key)) {
+            logger.warn("illegal stats " + text);
+            return;
+        }
+        AtomicReference<String> slot = slots.get(key);
+        if (isNull(slot)) {
+            slot = slots.computeIfAbsent(key, k -> new AtomicReference<>());
+        }
+        if (isNull(slot.getAndSet(text))) {
+            ready.offer(slot);
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void loop() {
+        List<SnapshotStats> batch = new ArrayList<>();
+        for (; ; ) {
+            AtomicReference<String> slot;
+            while (nonNull(slot = ready.poll())) {
+                String text = slot.getAndSet(null);
+                if (isNull(text)) {
+                    continue;
+                }
+                try {
+                    batch.add(SnapshotStats.fromString(text));
+                } catch (Exception e) {
+                    logger.error("parse stats error", e);
+                }
+            }
+
+            if (batch.isEmpty()) {
+                // offer 在入队后 unpark，先于 park 的 unpark 不会丢失
+                LockSupport.park(this);
+                continue;
+            }
+
+            try {
+                sink.accept(batch);
+            } catch (Throwable t) {
+                logger.error("update error", t);
+            }
+            batch.clear();
+        }
+    }
+}
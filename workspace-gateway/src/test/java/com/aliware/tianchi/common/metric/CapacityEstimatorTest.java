@@ -0,0 +1,68 @@
+package com.aliware.tianchi.common.metric;
+
+import com.aliware.tianchi.common.conf.Configuration;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用一个简单的服务端模型回放负载：并发不超过真实容量 c 时 RT = s，超过后排队，RT = s * 并发 / c，吞吐量 = c / s
+ */
+public class CapacityEstimatorTest {
+
+    private static final long INTERVAL_MS = 600;
+    private static final double SERVICE_MS = 20;
+    private static final int THREADS = 200;
+
+    /**
+     * 每段：持续的推送次数，真实容量，网关想发的并发
+     */
+    private static final int[][] STEPS = {
+            {100, 100, 300},
+            {100, 40, 300},
+            {100, 150, 300},
+            {100, 150, 30},
+    };
+
+    @Test
+    public void testStepChanges() {
+        CapacityEstimator estimator = new CapacityEstimator(new Configuration(), 1, THREADS);
+        Random random = new Random(7);
+        for (int[] step : STEPS) {
+            int c = step[1];
+            int offered = step[2];
+            for (int i = 0; i < step[0]; i++) {
+                replay(estimator, random, c, offered);
+            }
+            if (offered > c) {
+                // 过载：收敛到真实容量附近，允许 headroom 和试探带来的超出
+                int weight = estimator.getWeight();
+                assertTrue("c=" + c + ", weight=" + weight, weight >= c * .9d && weight <= c * 1.4d);
+                assertTrue(estimator.getMaxInflight() >= weight);
+            } else {
+                // 负载低于容量：不缩小到实际并发以下
+                assertTrue(estimator.getWeight() >= offered);
+            }
+        }
+    }
+
+    @Test
+    public void testIdle() {
+        CapacityEstimator estimator = new CapacityEstimator(new Configuration(), 1, THREADS);
+        estimator.update(0, INTERVAL_MS, 0, 0, 0);
+        assertEquals(THREADS, estimator.getWeight());
+        assertEquals(THREADS, estimator.getMaxInflight());
+    }
+
+    private static void replay(CapacityEstimator estimator, Random random, int c, int offered) {
+        int concurrency = Math.min(offered, estimator.getWeight());
+        double rt = concurrency <= c ? SERVICE_MS : SERVICE_MS * concurrency / c;
+        double throughput = Math.min(concurrency, c) / SERVICE_MS;
+        // 5% 的测量噪声
+        rt *= 1 + random.nextGaussian() * .05d;
+        long completed = Math.round(throughput * INTERVAL_MS * (1 + random.nextGaussian() * .05d));
+        estimator.update(completed, INTERVAL_MS, rt, Math.min(concurrency, THREADS), 0);
+    }
+}
@@ -0,0 +1,97 @@
+package com.aliware.tianchi.common.metric;
+
+import com.aliware.tianchi.common.conf.Configuration;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void test() {
+        Configuration conf = new Configuration()
+                .setOutlierConsecutiveFailures(3)
+                .setOutlierBaseEjectionMs(10);
+        CircuitBreaker breaker = new CircuitBreaker(conf);
+        long now = System.nanoTime();
+
+        assertFalse(breaker.onFailure(now));
+        assertFalse(breaker.onFailure(now));
+        breaker.onSuccess(now);
+        assertFalse(breaker.onFailure(now));
+        assertFalse(breaker.onFailure(now));
+        assertTrue(breaker.onFailure(now));
+
+        assertTrue(breaker.open(now));
+        assertTrue(breaker.isEjected());
+        assertFalse(breaker.isAvailable(now));
+        assertFalse(breaker.tryAcquirePermission(now));
+
+        // 到期后只放行一个探测
+        long later = now + TimeUnit.MILLISECONDS.toNanos(10);
+        assertTrue(breaker.isAvailable(later));
+        assertTrue(breaker.tryAcquirePermission(later));
+        assertFalse(breaker.tryAcquirePermission(later));
+        assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+
+        // 探测失败，熔断时间加倍
+        breaker.onFailure(later);
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        assertFalse(breaker.isAvailable(later + TimeUnit.MILLISECONDS.toNanos(10)));
+        long probe = later + TimeUnit.MILLISECONDS.toNanos(20);
+        assertTrue(breaker.tryAcquirePermission(probe));
+
+        breaker.onSuccess(probe);
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission(probe));
+    }
+
+    @Test
+    public void testLostProbe() {
+        Configuration conf = new Configuration()
+                .setOutlierConsecutiveFailures(1)
+                .setOutlierBaseEjectionMs(10)
+                .setOutlierProbeTimeoutMs(100);
+        CircuitBreaker breaker = new CircuitBreaker(conf);
+        long now = System.nanoTime();
+        assertTrue(breaker.onFailure(now));
+        assertTrue(breaker.open(now));
+
+        long probe = now + TimeUnit.MILLISECONDS.toNanos(10);
+        assertTrue(breaker.tryAcquirePermission(probe));
+        assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+
+        // 探测结果一直没有回来
+        long beforeDeadline = probe + TimeUnit.MILLISECONDS.toNanos(99);
+        assertFalse(breaker.isAvailable(beforeDeadline));
+        assertFalse(breaker.tryAcquirePermission(beforeDeadline));
+
+        // 截止时间之后允许重新探测，仍然只放行一个
+        long afterDeadline = probe + TimeUnit.MILLISECONDS.toNanos(100);
+        assertTrue(breaker.isAvailable(afterDeadline));
+        assertTrue(breaker.tryAcquirePermission(afterDeadline));
+        assertFalse(breaker.tryAcquirePermission(afterDeadline));
+        assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess(afterDeadline);
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testErrorRatio() {
+        Configuration conf = new Configuration()
+                .setOutlierConsecutiveFailures(Integer.MAX_VALUE)
+                .setOutlierMinRequests(10)
+                .setOutlierErrorRatio(.5d)
+                .setOutlierWindowMs(1);
+        CircuitBreaker breaker = new CircuitBreaker(conf);
+        long now = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            breaker.onSuccess(now);
+            assertFalse(breaker.onFailure(now));
+        }
+        assertTrue(breaker.onFailure(now + TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+}
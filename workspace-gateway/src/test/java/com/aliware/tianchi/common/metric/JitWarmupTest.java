@@ -0,0 +1,87 @@
+package com.aliware.tianchi.common.metric;
+
+import com.aliware.tianchi.common.conf.Configuration;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JitWarmupTest {
+
+    private static final long PUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void testQuietAfterCompiling() {
+        Configuration conf = new Configuration();
+        JitWarmup warmup = new JitWarmup(conf, 0);
+        long now = 0, compileMs = 0;
+
+        // 编译繁忙：每个周期一半时间在编译
+        for (int i = 0; i < 20; i++) {
+            now += PUSH_NANOS;
+            compileMs += 50;
+            warmup.update(compileMs, now, true);
+        }
+        assertFalse(warmup.isWarm());
+        assertTrue(warmup.getFactor() < 1);
+
+        double prev = warmup.getFactor();
+        for (int i = 0; i < 100 && !warmup.isWarm(); i++) {
+            now += PUSH_NANOS;
+            warmup.update(compileMs, now, true);
+            assertTrue(warmup.getFactor() >= prev);
+            prev = warmup.getFactor();
+        }
+        assertTrue(warmup.isWarm());
+        assertEquals(1, warmup.getFactor(), 1e-9);
+
+        // 预热完成后不再回退
+        now += PUSH_NANOS;
+        warmup.update(compileMs + 100, now, true);
+        assertEquals(1, warmup.getFactor(), 1e-9);
+    }
+
+    @Test
+    public void testIdleNotCounted() {
+        Configuration conf = new Configuration();
+        JitWarmup warmup = new JitWarmup(conf, 0);
+        long now = 0;
+        for (int i = 0; i < conf.getJitQuietPushes() * 2; i++) {
+            now += PUSH_NANOS;
+            warmup.update(0, now, false);
+        }
+        assertFalse(warmup.isWarm());
+        assertTrue(warmup.getFactor() < .5);
+
+        // 超过最长预热时间后直接视为完成
+        warmup.update(0, TimeUnit.MILLISECONDS.toNanos(conf.getJitWarmupMaxMs()), false);
+        assertTrue(warmup.isWarm());
+    }
+
+    @Test
+    public void testUnsupported() {
+        Configuration conf = new Configuration();
+        JitWarmup warmup = new JitWarmup(conf, 0);
+        assertEquals(conf.getJitWarmupMinRatio(), warmup.getFactor(), 1e-9);
+        long now = 0;
+        for (int i = 0; i < conf.getJitQuietPushes(); i++) {
+            now += PUSH_NANOS;
+            warmup.update(-1, now, true);
+        }
+        assertTrue(warmup.isWarm());
+    }
+
+    @Test
+    public void testSnapshotFormat() {
+        String old = "hash@1.1.1.1:20880_1000_600_200_10_100_0_0_5.0_166_50_3_1.5_0.1@null";
+        SnapshotStats stats = SnapshotStats.fromString(old);
+        assertEquals(1, stats.getWarmupFactor(), 1e-9);
+
+        stats.setWarmupFactor(.4);
+        SnapshotStats parsed = SnapshotStats.fromString(stats.toString());
+        assertEquals(.4, parsed.getWarmupFactor(), 1e-9);
+        assertEquals(.1, parsed.getThrottledRatio(), 1e-9);
+        assertEquals(50, parsed.getWeight());
+    }
+}
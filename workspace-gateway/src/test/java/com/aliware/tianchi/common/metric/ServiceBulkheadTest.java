@@ -0,0 +1,138 @@
+package com.aliware.tianchi.common.metric;
+
+import com.aliware.tianchi.common.conf.Configuration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ServiceBulkheadTest {
+
+    @Test
+    public void testReservedAndBurst() {
+        ServiceBulkhead bulkhead = new ServiceBulkhead(new Configuration().setBulkheadReservedRatio(.5), 20);
+        ServiceBulkhead.Partition slow = bulkhead.getOrCreatePartition("slow");
+        ServiceBulkhead.Partition hash = bulkhead.getOrCreatePartition("hash");
+        assertEquals(5, slow.getReserved());
+        assertEquals(10, bulkhead.getBurst());
+
+        // 慢服务最多拿到自己的预留和全部突发容量
+        List<ServiceBulkhead.Permit> permits = new ArrayList<>();
+        ServiceBulkhead.Permit permit;
+        while ((permit = slow.tryAcquire()) != null) {
+            permits.add(permit);
+        }
+        assertEquals(15, permits.size());
+        assertEquals(ServiceBulkhead.Permit.BURST, permits.get(14));
+        assertEquals(5, hash.getLimit());
+
+        // 其他服务的预留不受影响
+        for (int i = 0; i < 5; i++) {
+            assertEquals(ServiceBulkhead.Permit.RESERVED, hash.tryAcquire());
+        }
+        assertNull(hash.tryAcquire());
+
+        slow.release(permits.remove(14));
+        assertEquals(ServiceBulkhead.Permit.BURST, hash.tryAcquire());
+        assertNull(slow.tryAcquire());
+    }
+
+    @Test
+    public void testResize() {
+        ServiceBulkhead bulkhead = new ServiceBulkhead(new Configuration().setBulkheadReservedRatio(.5), 20);
+        ServiceBulkhead.Partition a = bulkhead.getOrCreatePartition("a");
+        List<ServiceBulkhead.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            permits.add(a.tryAcquire());
+        }
+        assertEquals(5, bulkhead.getBurstUsed());
+
+        // 预留缩小后已经发出的许可保持原来的来源
+        ServiceBulkhead.Partition b = bulkhead.getOrCreatePartition("b");
+        assertEquals(5, a.getReserved());
+        assertEquals(5, bulkhead.getBurstUsed());
+        assertEquals(15, a.getInflight());
+        assertEquals(ServiceBulkhead.Permit.BURST, a.tryAcquire());
+        assertEquals(5 + 10 - 6, b.getLimit());
+        a.release(ServiceBulkhead.Permit.BURST);
+
+        bulkhead.resize(40);
+        assertEquals(10, a.getReserved());
+        for (ServiceBulkhead.Permit permit : permits) {
+            a.release(permit);
+        }
+        assertEquals(0, bulkhead.getBurstUsed());
+        assertEquals(0, a.getInflight());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        // 只有预留、预留加突发两种划分，线程数都多于线程池，获取会频繁失败
+        contend(new Configuration().setBulkheadReservedRatio(1), 4, "a");
+        contend(new Configuration().setBulkheadReservedRatio(1), 4, "a", "b");
+        contend(new Configuration().setBulkheadReservedRatio(.5), 4, "a", "b");
+    }
+
+    private static void contend(Configuration conf, int poolSize, String... services) throws Exception {
+        ServiceBulkhead bulkhead = new ServiceBulkhead(conf, poolSize);
+        for (String service : services) {
+            bulkhead.getOrCreatePartition(service);
+        }
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        AtomicLong rejected = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 100_000; i++) {
+                    ServiceBulkhead.Partition p = bulkhead.getPartition(services[random.nextInt(services.length)]);
+                    ServiceBulkhead.Permit permit = p.tryAcquire();
+                    if (permit == null) {
+                        rejected.incrementAndGet();
+                        continue;
+                    }
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    active.decrementAndGet();
+                    p.release(permit);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(rejected.get() > 0);
+        assertTrue(maxActive.get() <= poolSize);
+        assertEquals(0, bulkhead.getBurstUsed());
+        for (ServiceBulkhead.Partition p : bulkhead.getPartitions()) {
+            assertEquals(0, p.getInflight());
+            // 计数没有漂移：仍然只能拿到预留加突发容量
+            int acquired = 0;
+            List<ServiceBulkhead.Permit> permits = new ArrayList<>();
+            ServiceBulkhead.Permit permit;
+            while ((permit = p.tryAcquire()) != null) {
+                permits.add(permit);
+                acquired++;
+            }
+            assertEquals(p.getReserved() + bulkhead.getBurst(), acquired);
+            for (ServiceBulkhead.Permit held : permits) {
+                p.release(held);
+            }
+        }
+    }
+}
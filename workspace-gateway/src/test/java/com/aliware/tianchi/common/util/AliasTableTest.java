@@ -0,0 +1,33 @@
+package com.aliware.tianchi.common.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AliasTableTest {
+
+    @Test
+    public void test() {
+        List<String> elements = Arrays.asList("a", "b", "c", "d");
+        long[] weights = {10, 30, 0, 60};
+        AliasTable<String> table = AliasTable.build(elements, weights);
+        assertNotNull(table);
+
+        Random random = new Random(1);
+        int n = 1000000;
+        int[] counts = new int[elements.size()];
+        for (int i = 0; i < n; i++) {
+            counts[elements.indexOf(table.sample(random))]++;
+        }
+
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(weights[i] / 100d, counts[i] / (double) n, .005d);
+        }
+
+        assertNull(AliasTable.build(elements, new long[]{0, 0, 0, 0}));
+    }
+}
@@ -0,0 +1,39 @@
+package com.aliware.tianchi.common.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CgroupTest {
+
+    @Test
+    public void testParseLimit() {
+        assertEquals(-1, Cgroup.parseLimit(null));
+        assertEquals(-1, Cgroup.parseLimit("max\n"));
+        assertEquals(-1, Cgroup.parseLimit("-1"));
+        // v1 没有限制时是按页对齐的 Long.MAX_VALUE
+        assertEquals(-1, Cgroup.parseLimit("9223372036854771712"));
+        assertEquals(200000, Cgroup.parseLimit("200000"));
+    }
+
+    @Test
+    public void testParseCpuList() {
+        assertEquals(1, OSUtil.parseCpuList("0"));
+        assertEquals(4, OSUtil.parseCpuList("0-3\n"));
+        assertEquals(7, OSUtil.parseCpuList("0-3,8,10-11"));
+    }
+
+    @Test
+    public void testDetect() {
+        Cgroup cgroup = Cgroup.CURRENT;
+        assertTrue(cgroup.getVersion() >= 0 && cgroup.getVersion() <= 2);
+        int cpus = OSUtil.getNumberOfCpus();
+        assertTrue(cpus > 0);
+        int effective = cgroup.getEffectiveCpus(cpus);
+        assertTrue(effective > 0 && effective <= cpus);
+        // 没有配额时不采样限流
+        if (cgroup.getCpuLimit() <= 0) {
+            assertNull(cgroup.newThrottleSampler());
+        }
+    }
+}
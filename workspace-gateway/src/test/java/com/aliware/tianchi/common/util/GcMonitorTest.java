@@ -0,0 +1,42 @@
+package com.aliware.tianchi.common.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GcMonitorTest {
+
+    @Test
+    public void testPause() throws InterruptedException {
+        GcMonitor monitor = new GcMonitor();
+        monitor.sample();
+        System.gc();
+
+        // 通知是异步送达的
+        long deadline = System.currentTimeMillis() + 2000;
+        do {
+            Thread.sleep(10);
+            monitor.sample();
+        } while (monitor.getPausesPerSec() == 0 && System.currentTimeMillis() < deadline);
+
+        assertTrue(monitor.getPausesPerSec() > 0);
+        assertTrue(monitor.getPauseMsPerSec() >= 0);
+        double occupancy = monitor.getOldGenOccupancy();
+        assertTrue(occupancy >= 0 && occupancy <= 1);
+    }
+
+    @Test
+    public void testIsPause() {
+        String[] pauses = {"Copy", "MarkSweepCompact", "PS Scavenge", "PS MarkSweep", "ParNew",
+                           "G1 Young Generation", "G1 Old Generation",
+                           "ZGC Pauses", "ZGC Minor Pauses", "ZGC Major Pauses", "Shenandoah Pauses"};
+        for (String name : pauses) {
+            assertTrue(name, GcMonitor.isPause(name));
+        }
+        String[] cycles = {"ConcurrentMarkSweep", "G1 Concurrent GC",
+                           "ZGC Cycles", "ZGC Minor Cycles", "ZGC Major Cycles", "Shenandoah Cycles"};
+        for (String name : cycles) {
+            assertFalse(name, GcMonitor.isPause(name));
+        }
+    }
+}
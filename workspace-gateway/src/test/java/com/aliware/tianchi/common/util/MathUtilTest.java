@@ -0,0 +1,32 @@
+package com.aliware.tianchi.common.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MathUtilTest {
+
+    @Test
+    public void testMaxMinFairShare() {
+        // 需求小的被完全满足，剩余在大需求间均分
+        long[] shares = MathUtil.maxMinFairShare(100, new double[]{10, 80, 80});
+        assertEquals(10, shares[0]);
+        assertEquals(45, shares[1]);
+        assertEquals(45, shares[2]);
+
+        // 需求不足时多余容量平均分出去
+        shares = MathUtil.maxMinFairShare(100, new double[]{10, 20, 0, 0});
+        assertEquals(100, shares[0] + shares[1] + shares[2] + shares[3]);
+        assertTrue(shares[1] >= 20 && shares[0] >= 10);
+        assertTrue(shares[2] > 0 && shares[3] > 0);
+
+        assertEquals(0, MathUtil.maxMinFairShare(100, new double[0]).length);
+
+        // 保底的 1 也算在容量内，总和不超过容量
+        shares = MathUtil.maxMinFairShare(4, new double[]{100, 0, 0});
+        assertArrayEquals(new long[]{2, 1, 1}, shares);
+        shares = MathUtil.maxMinFairShare(2, new double[]{0, 100, 50});
+        assertEquals(2, shares[0] + shares[1] + shares[2]);
+        assertEquals(1, shares[1]);
+    }
+}
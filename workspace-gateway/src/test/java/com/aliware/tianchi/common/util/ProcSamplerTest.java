@@ -0,0 +1,91 @@
+package com.aliware.tianchi.common.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ProcSamplerTest {
+
+    @Test
+    public void testParse() {
+        // comm 中带空格和括号
+        byte[] stat = "42 (a) b) S 1 42 42 0 -1 4194304 80 0 0 0 123 45 0 0 20 0 1 0 154686\n".getBytes();
+        assertEquals(168, ProcSampler.parseCpuTicks(stat, stat.length));
+
+        byte[] loadavg = "0.53 0.52 0.35 12/71 3910\n".getBytes();
+        assertEquals(12, ProcSampler.parseRunning(loadavg, loadavg.length));
+
+        byte[] status = "Name:\tjava\nvoluntary_ctxt_switches:\t7\nnonvoluntary_ctxt_switches:\t3\n".getBytes();
+        int i = ProcSampler.indexAfter(status, status.length, "\nnonvoluntary_ctxt_switches:".getBytes());
+        assertEquals(3, ProcSampler.parseLong(status, status.length, i));
+    }
+
+    @Test
+    public void testSample() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/stat").exists());
+        ProcSampler sampler = ProcSampler.open(5, 1);
+        assertNotNull(sampler);
+        long end = System.nanoTime() + 50_000_000L;
+        while (System.nanoTime() < end) {
+            // 烧一点 CPU
+            Math.sqrt(end);
+        }
+        sampler.sample();
+        assertTrue(sampler.getProcessCpuLoad() >= 0 && sampler.getProcessCpuLoad() <= 1);
+        assertTrue(sampler.getRunQueue() >= 0);
+        assertTrue(sampler.getContextSwitchRate() >= 0);
+    }
+
+    @Test
+    public void testContextSwitchesOfAllThreads() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/task").exists());
+        ProcSampler sampler = ProcSampler.open(1, 1);
+        assertNotNull(sampler);
+
+        // 不是线程组 leader 的线程反复睡眠，产生自愿上下文切换；采样前不退出，否则它的计数会丢失
+        CountDownLatch slept = new CountDownLatch(1);
+        CountDownLatch sampled = new CountDownLatch(1);
+        Thread sleeper = new Thread(() -> {
+            try {
+                for (int i = 0; i < 50; i++) {
+                    Thread.sleep(1);
+                }
+                slept.countDown();
+                sampled.await();
+            } catch (InterruptedException e) {
+                // exit
+            }
+        });
+        sleeper.start();
+        slept.await();
+        sampler.sample();
+        sampled.countDown();
+        sleeper.join();
+        assertTrue(sampler.getContextSwitchRate() > 0);
+    }
+
+    @Test
+    public void testRuntimeInfoFormat() {
+        RuntimeInfo info = new RuntimeInfo(1, 4, 4, .5, 100, 20, 1.5, 2000, 12.5, 2, .75);
+        RuntimeInfo parsed = RuntimeInfo.fromString(info.toString());
+        assertEquals(1.5, parsed.getRunQueue(), 1e-9);
+        assertEquals(2000, parsed.getContextSwitchRate(), 1e-9);
+        assertEquals(12.5, parsed.getGcPauseMsPerSec(), 1e-9);
+        assertEquals(2, parsed.getGcPausesPerSec(), 1e-9);
+        assertEquals(.75, parsed.getOldGenOccupancy(), 1e-9);
+
+        // 没有 GC 字段的格式
+        parsed = RuntimeInfo.fromString("1_4_4_0.5_100_20_1.5_2000");
+        assertEquals(2000, parsed.getContextSwitchRate(), 1e-9);
+        assertEquals(0, parsed.getGcPauseMsPerSec(), 1e-9);
+
+        // 旧格式
+        parsed = RuntimeInfo.fromString("1_4_4_0.5_100_20");
+        assertEquals(.5, parsed.getProcessCpuLoad(), 1e-9);
+        assertEquals(0, parsed.getRunQueue(), 1e-9);
+    }
+}
@@ -0,0 +1,83 @@
+package com.aliware.tianchi.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ConsistentHashRingTest {
+
+    @Test
+    public void test() {
+        List<String> addresses = Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3");
+        ConsistentHashRing ring = ConsistentHashRing.build(addresses, 160);
+        int[] order = new int[addresses.size()];
+
+        int n = 30000;
+        int[] counts = new int[addresses.size()];
+        for (int i = 0; i < n; i++) {
+            String key = Integer.toString(i);
+            assertEquals(addresses.size(), ring.walk(key, order));
+            Set<Integer> distinct = new HashSet<>();
+            for (int o : order) {
+                distinct.add(o);
+            }
+            assertEquals(addresses.size(), distinct.size());
+            counts[order[0]]++;
+
+            // 同一个 key 总是落在同一个实例
+            int first = order[0];
+            ring.walk(key, order);
+            assertEquals(first, order[0]);
+        }
+        for (int c : counts) {
+            assertEquals(1d / addresses.size(), c / (double) n, .05d);
+        }
+    }
+
+    @Test
+    public void testReuse() {
+        List<String> addresses = Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3");
+        ConsistentHashRing ring = ConsistentHashRing.build(addresses, 160);
+        assertTrue(ring.matches(new String[]{"10.0.0.1", "10.0.0.2", "10.0.0.3"}));
+        assertFalse(ring.matches(new String[]{"10.0.0.2", "10.0.0.1", "10.0.0.3"}));
+        assertFalse(ring.matches(new String[]{"10.0.0.1", "10.0.0.2"}));
+
+        // 复用的标记数组在每次遍历后恢复
+        int[] order = new int[addresses.size()];
+        boolean[] seen = new boolean[addresses.size()];
+        int[] expected = new int[addresses.size()];
+        for (int i = 0; i < 1000; i++) {
+            String key = Integer.toString(i);
+            ring.walk(key, expected);
+            assertEquals(addresses.size(), ring.walk(key, order, seen));
+            assertArrayEquals(expected, order);
+            assertArrayEquals(new boolean[addresses.size()], seen);
+        }
+    }
+
+    @Test
+    public void testRemoveNode() {
+        List<String> addresses = new ArrayList<>(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4"));
+        ConsistentHashRing ring = ConsistentHashRing.build(addresses, 160);
+        List<String> removed = new ArrayList<>(addresses);
+        removed.remove(3);
+        ConsistentHashRing smaller = ConsistentHashRing.build(removed, 160);
+
+        int[] order = new int[addresses.size()];
+        for (int i = 0; i < 10000; i++) {
+            String key = Integer.toString(i);
+            ring.walk(key, order);
+            if (order[0] != 3) {
+                String owner = addresses.get(order[0]);
+                smaller.walk(key, order);
+                assertEquals(owner, removed.get(order[0]));
+            }
+        }
+    }
+}
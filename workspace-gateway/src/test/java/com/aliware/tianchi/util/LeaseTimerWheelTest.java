@@ -0,0 +1,78 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.common.metric.StatsTokenBucket;
+import com.aliware.tianchi.common.metric.TokenLease;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LeaseTimerWheelTest {
+
+    @Test
+    public void test() {
+        long tick = TimeUnit.MILLISECONDS.toNanos(10);
+        LeaseTimerWheel wheel = new LeaseTimerWheel(tick, 8);
+        StatsTokenBucket bucket = new StatsTokenBucket();
+        bucket.resetTokens(2);
+
+        long now = System.nanoTime();
+        assertTrue(bucket.acquireToken());
+        TokenLease leaked = bucket.newLease(1, now + 3 * tick);
+        wheel.schedule(leaked);
+        assertTrue(bucket.acquireToken());
+        TokenLease returned = bucket.newLease(2, now + 3 * tick);
+        wheel.schedule(returned);
+        assertFalse(bucket.acquireToken());
+
+        assertTrue(returned.release());
+        assertFalse(returned.release());
+        assertEquals(1, bucket.remainTokens());
+
+        AtomicInteger expired = new AtomicInteger();
+        assertEquals(0, wheel.expire(now + tick, l -> expired.incrementAndGet()));
+        assertEquals(1, wheel.expire(now + 20 * tick, l -> expired.incrementAndGet()));
+        assertEquals(1, expired.get());
+        assertEquals(2, bucket.remainTokens());
+        assertEquals(0, bucket.inflightTokens());
+        assertFalse(leaked.release());
+    }
+
+    @Test
+    public void testReleaseAfterReset() {
+        StatsTokenBucket bucket = new StatsTokenBucket();
+        bucket.resetTokens(2);
+
+        assertTrue(bucket.acquireToken());
+        TokenLease old = bucket.newLease(1, Long.MAX_VALUE);
+
+        // 重置时扣除仍在途的租约
+        bucket.resetTokens(3);
+        assertEquals(2, bucket.remainTokens());
+
+        // 重置前发出的租约照常归还，可用 + 在途 = maxTokens
+        assertTrue(old.release());
+        assertEquals(3, bucket.remainTokens());
+        assertEquals(0, bucket.inflightTokens());
+        assertFalse(old.release());
+        assertEquals(3, bucket.remainTokens());
+
+        bucket.resetTokens(3);
+        assertEquals(3, bucket.remainTokens());
+    }
+
+    @Test
+    public void testFailedAcquire() {
+        StatsTokenBucket bucket = new StatsTokenBucket();
+        bucket.resetTokens(1);
+        assertTrue(bucket.acquireToken());
+
+        // 获取失败不改变在途数，重置算出的可用数不受影响
+        assertFalse(bucket.acquireToken());
+        assertEquals(1, bucket.inflightTokens());
+        bucket.resetTokens(2);
+        assertEquals(1, bucket.remainTokens());
+    }
+}
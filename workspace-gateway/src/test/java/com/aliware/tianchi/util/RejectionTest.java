@@ -0,0 +1,58 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.common.conf.Configuration;
+import com.aliware.tianchi.common.metric.StatsTokenBucket;
+import com.aliware.tianchi.common.util.DubboUtil;
+import org.apache.dubbo.rpc.RpcException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RejectionTest {
+
+    private static final String SERVICE = "hash";
+
+    @Test
+    public void testBulkheadRejectionKeepsBreakerClosed() {
+        LBHelper helper = new LBHelper(new Configuration());
+        StatsTokenBucket bucket = group(helper);
+
+        // 服务端按服务隔离已满是单个服务的背压，不能把整个实例熔断
+        Throwable rejection = DubboUtil.limitExceeded("TEST Server side(1.1.1.1,20880) bulkhead of hash is full");
+        assertTrue(LBHelper.isRejection(rejection));
+        long now = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            helper.recordOutcome(SERVICE, bucket, rejection, now);
+        }
+        assertFalse(bucket.getBreaker().isEjected());
+        assertTrue(helper.isAvailable(bucket, now));
+    }
+
+    @Test
+    public void testFailureTripsBreaker() {
+        LBHelper helper = new LBHelper(new Configuration());
+        StatsTokenBucket bucket = group(helper);
+
+        Throwable failure = new IllegalStateException("boom");
+        assertFalse(LBHelper.isRejection(failure));
+        long now = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            helper.recordOutcome(SERVICE, bucket, failure, now);
+        }
+        assertTrue(bucket.getBreaker().isEjected());
+    }
+
+    @Test
+    public void testClassifyByCode() {
+        assertTrue(LBHelper.isRejection(new RpcException(RpcException.LIMIT_EXCEEDED_EXCEPTION, "any message")));
+        // 只看错误码，不按错误信息的文本识别
+        assertFalse(LBHelper.isRejection(new RpcException("threadpool is exhausted")));
+        assertFalse(LBHelper.isRejection(new RpcException(RpcException.NETWORK_EXCEPTION, "queue timeout")));
+    }
+
+    private static StatsTokenBucket group(LBHelper helper) {
+        helper.getStatsBucket(SERVICE, "2.2.2.2:20880");
+        helper.getStatsBucket(SERVICE, "3.3.3.3:20880");
+        return helper.getStatsBucket(SERVICE, "1.1.1.1:20880");
+    }
+}
@@ -0,0 +1,38 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.common.conf.Configuration;
+import com.aliware.tianchi.common.metric.SnapshotStats;
+import com.aliware.tianchi.common.metric.StatsTokenBucket;
+import com.aliware.tianchi.common.util.AliasTable;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SamplerTest {
+
+    @Test
+    public void testRebuildOnlyOnChange() throws InterruptedException {
+        LBHelper helper = new LBHelper(new Configuration().setSamplerLiveMs(500).setStatsStaleAfterMs(10_000));
+        StatsTokenBucket live = helper.getStatsBucket("hash", "1.1.1.1:20880");
+        helper.getStatsBucket("hash", "2.2.2.2:20880");
+        live.touch(System.nanoTime());
+        helper.updateInstanceStats(SnapshotStats.fromString("hash@1.1.1.1:20880_1000_600_200_10_100_0_0_5.0_166_50_3@null"));
+        helper.updateInstanceStats(SnapshotStats.fromString("hash@2.2.2.2:20880_1000_600_200_10_100_0_0_5.0_166_50_3@null"));
+        Thread.sleep(50);
+
+        // 只包含出现在 invokers 中的实例
+        AliasTable<StatsTokenBucket> sampler = helper.getSampler("hash");
+        assertEquals(1, sampler.size());
+        assertSame(live, sampler.sample(new Random()));
+
+        // 权重和实例集合都不变时不重建
+        Thread.sleep(250);
+        assertSame(sampler, helper.getSampler("hash"));
+
+        // 超过 samplerLiveMs 没有出现后移出采样表
+        Thread.sleep(500);
+        assertNull(helper.getSampler("hash"));
+    }
+}
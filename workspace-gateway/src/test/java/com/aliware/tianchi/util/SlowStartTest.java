@@ -0,0 +1,71 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.common.conf.Configuration;
+import com.aliware.tianchi.common.metric.SnapshotStats;
+import com.aliware.tianchi.common.metric.StatsTokenBucket;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SlowStartTest {
+
+    private static final String STATS = "hash@1.1.1.1:20880_1000_600_200_10_100_0_0_5.0_166_50_3@null";
+
+    /**
+     * 推送不会过期，只看慢启动
+     */
+    private static Configuration conf() {
+        return new Configuration().setSlowStartWindowMs(200).setSlowStartMinRatio(.1).setStatsStaleAfterMs(10_000);
+    }
+
+    @Test
+    public void testNoStats() throws InterruptedException {
+        LBHelper helper = new LBHelper(conf());
+        StatsTokenBucket bucket = helper.getStatsBucket("hash", "1.1.1.1:20880");
+
+        // 没有推送的实例不做慢启动，令牌上限等于网关侧的并发上限
+        int limit = bucket.getLimiter().getLimit();
+        assertEquals(1, helper.warmupRatio(bucket), 1e-9);
+        assertEquals(limit, helper.capacityOf(bucket));
+        Thread.sleep(250);
+        assertEquals(1, helper.warmupRatio(bucket), 1e-9);
+        assertEquals(limit, helper.capacityOf(bucket));
+    }
+
+    @Test
+    public void testRampFromFirstStats() throws InterruptedException {
+        LBHelper helper = new LBHelper(conf());
+        StatsTokenBucket bucket = helper.getStatsBucket("hash", "1.1.1.1:20880");
+
+        // 桶创建后过了整个窗口才收到第一次推送，慢启动仍从第一次推送开始
+        Thread.sleep(250);
+        assertTrue(helper.updateInstanceStats(SnapshotStats.fromString(STATS)));
+        double ratio = helper.warmupRatio(bucket);
+        assertTrue(ratio < .5);
+        long capacity = helper.capacityOf(bucket);
+        assertTrue(capacity < 50);
+
+        Thread.sleep(100);
+        assertTrue(helper.warmupRatio(bucket) > ratio);
+        assertTrue(helper.capacityOf(bucket) >= capacity);
+
+        Thread.sleep(150);
+        assertEquals(1, helper.warmupRatio(bucket), 1e-9);
+        assertEquals(50, helper.capacityOf(bucket));
+    }
+
+    @Test
+    public void testRestart() throws InterruptedException {
+        LBHelper helper = new LBHelper(conf());
+        StatsTokenBucket bucket = helper.getStatsBucket("hash", "1.1.1.1:20880");
+        helper.updateInstanceStats(SnapshotStats.fromString(STATS));
+        Thread.sleep(250);
+        assertEquals(50, helper.capacityOf(bucket));
+
+        // epoch 回退而统计窗口前进，实例重启后重新慢启动
+        assertTrue(helper.updateInstanceStats(
+                SnapshotStats.fromString("hash@1.1.1.1:20880_5000_600_200_10_100_0_0_5.0_166_50_1@null")));
+        assertTrue(helper.warmupRatio(bucket) < .5);
+        assertTrue(helper.capacityOf(bucket) < 50);
+    }
+}
@@ -0,0 +1,66 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.common.metric.SnapshotStats;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StatsIngestorTest {
+
+    private static String text(String address, long epoch) {
+        return "svc@" + address + "_0_600_200_1_10_0_0_1.0_10_100_" + epoch + "_0.0@null";
+    }
+
+    @Test
+    public void testKeyOf() {
+        assertEquals("svc@1.1.1.1:20880", SnapshotStats.keyOf(text("1.1.1.1:20880", 1)));
+        assertNull(SnapshotStats.keyOf("illegal"));
+    }
+
+    @Test
+    public void testCoalesce() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger applied = new AtomicInteger();
+        Map<String, Long> latest = new ConcurrentHashMap<>();
+        StatsIngestor ingestor = new StatsIngestor("test-ingest", (List<SnapshotStats> batch) -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (SnapshotStats stats : batch) {
+                applied.incrementAndGet();
+                latest.put(stats.getAddress(), stats.getEpoch());
+            }
+        });
+
+        ingestor.offer(text("a", 0));
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+
+        // 处理线程阻塞期间的推送合并为每个实例一条
+        for (int i = 1; i <= 1000; i++) {
+            ingestor.offer(text("a", i));
+            ingestor.offer(text("b", i));
+        }
+        ingestor.offer("illegal");
+        release.countDown();
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!(Long.valueOf(1000).equals(latest.get("a")) && Long.valueOf(1000).equals(latest.get("b"))) &&
+               System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1000L, (long) latest.get("a"));
+        assertEquals(1000L, (long) latest.get("b"));
+        assertEquals(3, applied.get());
+    }
+}
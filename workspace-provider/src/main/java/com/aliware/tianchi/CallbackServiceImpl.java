@@ -1,23 +1,29 @@
 package com.aliware.tianchi;
 
 import com.aliware.tianchi.common.conf.Configuration;
-import com.aliware.tianchi.common.metric.InstanceStats;
+import com.aliware.tianchi.common.metric.CapacityEstimator;
+import com.aliware.tianchi.common.metric.GradientLimiter;
+import com.aliware.tianchi.common.metric.ServiceBulkhead;
 import com.aliware.tianchi.common.metric.SnapshotStats;
 import com.aliware.tianchi.common.util.MathUtil;
+import com.aliware.tianchi.util.ConsumerDemand;
 import com.aliware.tianchi.util.NearRuntimeHelper;
+import com.aliware.tianchi.util.PortDomain;
+import com.aliware.tianchi.util.PushMailbox;
+import com.aliware.tianchi.util.ThreadPoolResizer;
 import com.aliware.tianchi.util.ThreadPoolStats;
 import org.apache.dubbo.common.logger.Logger;
 import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.threadlocal.NamedInternalThreadFactory;
+import org.apache.dubbo.rpc.RpcContext;
 import org.apache.dubbo.rpc.listener.CallbackListener;
 import org.apache.dubbo.rpc.service.CallbackService;
 
-import java.util.Map;
-import java.util.Set;
-import java.util.StringJoiner;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
 
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
 import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
 
 /**
@@ -36,116 +42,295 @@ public class CallbackServiceImpl implements CallbackService {
         Configuration conf = helper.getConfiguration();
         long initDelayMs = conf.getStatsPushInitDelayMs();
         long delayMs = conf.getStatsPushDelayMs();
+        // 每个信箱同时最多一个发送任务，线程数不会超过 listener 数
+        pushExecutor = new ThreadPoolExecutor(conf.getPushThreads(), Integer.MAX_VALUE,
+                                              60, TimeUnit.SECONDS,
+                                              new SynchronousQueue<>(),
+                                              new NamedInternalThreadFactory("stats-push", true));
+        snapshotExecutor = Executors.newFixedThreadPool(Math.max(1, conf.getSnapshotThreads()),
+                                                        new NamedInternalThreadFactory("stats-snapshot", true));
         ScheduledExecutorService executor = helper.getScheduledExecutor();
         executor.scheduleWithFixedDelay(new PushTask(), initDelayMs, delayMs, TimeUnit.MILLISECONDS);
     }
 
+    private final Executor pushExecutor;
+
+    /**
+     * 服务较多时并行生成快照，与公共 ForkJoinPool 隔离，业务代码的并行流不会拖慢推送
+     */
+    private final ExecutorService snapshotExecutor;
+
+    /**
+     * key: listener type
+     * value: 该 listener 的推送信箱
+     */
+    private final Map<String, PushMailbox> listeners = new ConcurrentHashMap<>();
+
     /**
      * key: listener type
-     * value: callback listener
+     * value: 注册该 listener 的连接的远端地址，需求按它统计，配额按 listener 分配
      */
-    private final Map<String, CallbackListener> listeners = new ConcurrentHashMap<>();
+    private final Map<String, InetSocketAddress> consumers = new ConcurrentHashMap<>();
 
     @Override
     public void addListener(String key, CallbackListener listener) {
-        listeners.put(key, listener);
+        InetSocketAddress remoteAddress = RpcContext.getContext().getRemoteAddress();
+        if (nonNull(remoteAddress)) {
+            consumers.put(key, remoteAddress);
+        }
+        PushMailbox[] holder = new PushMailbox[1];
+        holder[0] = new PushMailbox(key, listener, pushExecutor, NearRuntimeHelper.INSTANCE.getConfiguration(),
+                                    () -> evict(key, holder[0]));
+        listeners.put(key, holder[0]);
+    }
+
+    /**
+     * 只移除失败的那个信箱，期间重新注册的 listener 不受影响
+     */
+    private void evict(String key, PushMailbox mailbox) {
+        if (listeners.remove(key, mailbox)) {
+            InetSocketAddress address = consumers.remove(key);
+            if (nonNull(address) && !consumers.containsValue(address)) {
+                NearRuntimeHelper.INSTANCE.getConsumerDemand().remove(address);
+            }
+        }
     }
 
     class PushTask implements Runnable {
 
-        private int weightCache;
+        /**
+         * key: serviceId@address
+         * value: 该服务的容量估计，并行生成快照时不同的 key 在不同线程中更新
+         */
+        private final Map<String, CapacityEstimator> estimators = new ConcurrentHashMap<>();
 
-        private long previousMillis = System.currentTimeMillis();
+        /**
+         * key: 协议端口
+         */
+        private final Map<Integer, ThreadPoolResizer> resizers = new HashMap<>();
+
+        private long previousNanos = System.nanoTime();
 
         private Map<String, SnapshotStats> prevStatsMap = new ConcurrentHashMap<>();
 
+        /**
+         * 按各消费者最近的需求（到达率 * 平均RT，即 Little 定律下的并发）对 weight 做最大最小公平划分，
+         * 避免 N 个网关各自拿到全部容量
+         */
+        private long[] partition(int weight, long[] arrivals, long intervalNanos, double avgRTMs) {
+            int n = arrivals.length;
+            if (n == 1) {
+                return new long[]{weight};
+            }
+            double intervalMs = Math.max(intervalNanos / 1e6, 1d);
+            double[] demands = new double[n];
+            for (int i = 0; i < n; i++) {
+                demands[i] = arrivals[i] * avgRTMs / intervalMs;
+            }
+            return MathUtil.maxMinFairShare(weight, demands);
+        }
+
+        private void resize(Configuration conf, PortDomain domain, int targetThreads) {
+            ThreadPoolResizer resizer =
+                    resizers.computeIfAbsent(domain.getPort(),
+                                             k -> new ThreadPoolResizer(conf, conf.getPoolMinThreads(), domain.getMaxThreads()));
+            int threads = domain.getThreads();
+            int next = resizer.next(threads, targetThreads);
+            if (next != threads && domain.resizeThreads(next)) {
+                logger.info("resize threads of port " + domain.getPort() + " " + threads + " -> " + next +
+                            ", target=" + targetThreads);
+            }
+        }
+
         @Override
         public void run() {
-
             NearRuntimeHelper helper = NearRuntimeHelper.INSTANCE;
+            Configuration conf = helper.getConfiguration();
 
             // update runtime info
             helper.updateRuntimeInfo();
+            helper.updateThrottling();
+            double throttledRatio = helper.getThrottledRatio();
 
-            int weight = 0;
-
-            // TestThreadPool threadPool = (TestThreadPool) ExtensionLoader.getExtensionLoader(ThreadPool.class)
-            //                                                             .getAdaptiveExtension();
-
-            // ThreadPoolStats threadPoolStats = threadPool.getThreadPoolStats();
-            ThreadPoolStats threadPoolStats = helper.getThreadPoolStats();
-            int frees = threadPoolStats.freeCount(),
-                    waits = threadPoolStats.waitCount(),
-                    works = threadPoolStats.workCount();
-
-            if (waits > 0) {
-                weight = works;
-                weightCache = weight;
-                previousMillis = System.currentTimeMillis();
-            } else if (MathUtil.isApproximate(works, weightCache, 10)) {
-                weight = weightCache;
-            } else if (works > weightCache) {
-                weight = works;
-                weightCache = weight;
-            } else if (System.currentTimeMillis() < previousMillis + 2500) {
-                weight = weightCache;
-            } else {
-                weightCache = works;
+            Collection<PortDomain> domains = helper.getDomains();
+            if (domains.isEmpty()) {
+                return;
             }
 
-            if (weight < helper.getThreads() / 2) {
-                weight = helper.getThreads();
-                weightCache = works;
+            List<ServicePush> pushes = new ArrayList<>();
+            long totalSuccesses = 0;
+            for (PortDomain domain : domains) {
+                ThreadPoolStats threadPoolStats = domain.getThreadPoolStats();
+                for (String serviceId : domain.getStats().getServiceIds()) {
+                    ServicePush push = new ServicePush(domain, threadPoolStats, serviceId);
+                    push.snapshot = domain.getStats().snapshot(serviceId);
+                    push.successes = push.snapshot.getNumberOfSuccesses();
+                    totalSuccesses += push.successes;
+                    pushes.add(push);
+                }
             }
 
+            // 本周期有请求处理完成才说明热点代码在执行，没有请求时不推进预热；
+            // 采样时刻线程池的工作线程数只是一个瞬间，周期内有请求也可能恰好为 0
+            helper.updateWarmup(totalSuccesses > 0);
+            double warmupFactor = helper.getWarmupFactor();
+
             long epoch = helper.getAndIncrementEpoch();
 
             // notify 
-            InstanceStats instanceStats = helper.getInstanceStats();
-            if (nonNull(instanceStats)) {
-                for (Map.Entry<String, CallbackListener> entry : listeners.entrySet()) {
-                    try {
-                        CallbackListener listener = entry.getValue();
-                        Set<String> serviceIds = instanceStats.getServiceIds();
-                        for (String serviceId : serviceIds) {
-                            if (!serviceId.contains("hash")) {
-                                continue;
-                            }
-
-                            SnapshotStats snapshot = instanceStats.snapshot(serviceId);
-                            snapshot.setEpoch(epoch);
-                            snapshot.setWeight(weight);
-                            listener.receiveServerMsg(snapshot.toString());
-
-                            prevStatsMap.put(serviceId, snapshot);
-
-                            long time = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - helper.getStartNanos());
-                            logger.info(new StringJoiner(", ")
-                                                .add("time=" + time)
-                                                .add("epoch=" + epoch)
-                                                .add("act=" + snapshot.getActiveCount())
-                                                .add("frees=" + frees)
-                                                .add("waits=" + waits)
-                                                .add("works=" + works)
-                                                .add("weight=" + weight)
-                                                .add("wCache=" + weightCache)
-                                                .add("duration=" + snapshot.getAvgRTMs() * snapshot.getNumberOfSuccesses())
-                                                .add("avg=" + snapshot.getAvgRTMs())
-                                                .add("suc=" + snapshot.getNumberOfSuccesses())
-                                                .add("run=" + snapshot.getServerStats().getRuntimeInfo())
-                                                .toString());
-                        }
-
-                    } catch (Throwable t) {
-                        logger.error("send error", t);
+            List<String> keys = new ArrayList<>(listeners.keySet());
+            long[] arrivals = new long[keys.size()];
+            ConsumerDemand demand = helper.getConsumerDemand();
+            for (int i = 0; i < arrivals.length; i++) {
+                arrivals[i] = demand.sumThenReset(consumers.get(keys.get(i)));
+            }
+            // 重新注册或未注册回调的连接不再有人读取，每个周期清理一次
+            demand.retainAll(new HashSet<>(consumers.values()));
+            long nowNanos = System.nanoTime();
+            long intervalNanos = nowNanos - previousNanos;
+            previousNanos = nowNanos;
+
+            // 服务较多时权重的计算和快照的序列化并行进行，每个服务只在一个线程中处理
+            if (pushes.size() >= conf.getPushParallelThreshold()) {
+                List<Callable<Void>> tasks = new ArrayList<>(pushes.size());
+                for (ServicePush push : pushes) {
+                    tasks.add(() -> {
+                        push(push, keys, arrivals, intervalNanos, epoch, throttledRatio, warmupFactor);
+                        return null;
+                    });
+                }
+                try {
+                    for (Future<Void> future : snapshotExecutor.invokeAll(tasks)) {
+                        future.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    logger.warn("push snapshot error", e.getCause());
+                }
+            } else {
+                for (ServicePush push : pushes) {
+                    push(push, keys, arrivals, intervalNanos, epoch, throttledRatio, warmupFactor);
+                }
+            }
+
+            for (PortDomain domain : domains) {
+                int targetThreads = 0;
+                double duration = 0;
+                long successes = 0;
+                for (ServicePush push : pushes) {
+                    if (push.domain == domain) {
+                        targetThreads += push.maxInflight;
+                        duration += push.duration;
+                        successes += push.successes;
                     }
                 }
+                domain.setServiceTimeMs(successes > 0 ? duration / successes : 0);
 
-                helper.cleanStats();
+                if (targetThreads > 0 && conf.isOpenPoolResize()) {
+                    resize(conf, domain, targetThreads);
+                }
             }
 
+            helper.cleanStats();
         }
 
+        private void push(ServicePush push, List<String> keys, long[] arrivals, long intervalNanos,
+                          long epoch, double throttledRatio, double warmupFactor) {
+            NearRuntimeHelper helper = NearRuntimeHelper.INSTANCE;
+            PortDomain domain = push.domain;
+            String serviceId = push.serviceId;
+
+            SnapshotStats snapshot = push.snapshot;
+            snapshot.setEpoch(epoch);
+            snapshot.setThrottledRatio(throttledRatio);
+            snapshot.setWarmupFactor(warmupFactor);
+            String key = serviceId + '@' + snapshot.getAddress();
+
+            int works = push.threadPoolStats.workCount();
+            CapacityEstimator estimator =
+                    estimators.computeIfAbsent(key,
+                                               k -> new CapacityEstimator(helper.getConfiguration(), 1, domain.getMaxThreads()));
+            estimator.update(snapshot.getNumberOfSuccesses(), snapshot.intervalTimeMs(), snapshot.getAvgRTMs(),
+                             works, snapshot.getNumberOfRejections(), throttledRatio);
+            int weight = estimator.getWeight();
+            if (warmupFactor < 1) {
+                // 预热期间按线程数的一部分限制权重，避免冷启动时被打满
+                weight = Math.min(weight, Math.max(1, (int) Math.ceil(warmupFactor * domain.getThreads())));
+            }
+            ServiceBulkhead.Partition partition = helper.getConfiguration().isOpenBulkhead() ?
+                    domain.getBulkhead().getPartition(serviceId) : null;
+            if (nonNull(partition)) {
+                // 不超过该服务在线程池中实际还能获得的并发
+                weight = Math.min(weight, Math.max(1, partition.getLimit()));
+            }
+            push.maxInflight = estimator.getMaxInflight();
+            push.duration = snapshot.getAvgRTMs() * push.successes;
+
+            long[] quotas = partition(weight, arrivals, intervalNanos, snapshot.getAvgRTMs());
+            for (int i = 0; i < quotas.length; i++) {
+                PushMailbox mailbox = listeners.get(keys.get(i));
+                if (isNull(mailbox)) {
+                    continue;
+                }
+                snapshot.setWeight((int) quotas[i]);
+                mailbox.post(key, snapshot.toString());
+            }
+
+            prevStatsMap.put(key, snapshot);
+
+            long time = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - helper.getStartNanos());
+            GradientLimiter limiter = domain.getLimiter();
+            // 每个服务每次推送一行，服务多时量很大
+            if (!logger.isDebugEnabled()) {
+                return;
+            }
+            logger.debug(new StringJoiner(", ")
+                                 .add("time=" + time)
+                                 .add("key=" + key)
+                                 .add("epoch=" + epoch)
+                                 .add("act=" + snapshot.getActiveCount())
+                                 .add("frees=" + push.threadPoolStats.freeCount())
+                                 .add("waits=" + push.threadPoolStats.waitCount())
+                                 .add("works=" + works)
+                                 .add("weight=" + weight)
+                                 .add("quotas=" + Arrays.toString(quotas))
+                                 .add("maxInflight=" + estimator.getMaxInflight())
+                                 .add("probeRT=" + estimator.isProbingRT())
+                                 .add("limit=" + (nonNull(limiter) ? limiter.getLimit() : -1))
+                                 .add("bulkhead=" + partition)
+                                 .add("duration=" + push.duration)
+                                 .add("avg=" + snapshot.getAvgRTMs())
+                                 .add("queue=" + snapshot.getAvgQueueMs())
+                                 .add("throttled=" + throttledRatio)
+                                 .add("warmup=" + warmupFactor)
+                                 .add("suc=" + push.successes)
+                                 .add("run=" + snapshot.getServerStats().getRuntimeInfo())
+                                 .toString());
+        }
+
+    }
+
+    /**
+     * 一个推送周期内单个服务的快照任务，结果由推送线程在所有任务完成后汇总到端口
+     */
+    private static final class ServicePush {
+        final PortDomain domain;
+        final ThreadPoolStats threadPoolStats;
+        final String serviceId;
+
+        SnapshotStats snapshot;
+
+        int maxInflight;
+        long successes;
+        double duration;
+
+        ServicePush(PortDomain domain, ThreadPoolStats threadPoolStats, String serviceId) {
+            this.domain = domain;
+            this.threadPoolStats = threadPoolStats;
+            this.serviceId = serviceId;
+        }
     }
 
 }
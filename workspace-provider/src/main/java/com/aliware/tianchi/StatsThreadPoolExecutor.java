@@ -1,5 +1,8 @@
 package com.aliware.tianchi;
 
+import com.aliware.tianchi.util.NearRuntimeHelper;
+import com.aliware.tianchi.util.QueuedTask;
+
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
@@ -21,6 +24,20 @@ public class StatsThreadPoolExecutor extends ThreadPoolExecutor {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
     }
 
+    /**
+     * 同时修改核心线程数和最大线程数，扩容先改最大值、缩容先改核心值，保证核心值不超过最大值。
+     * 缩容时多出的线程在空闲后退出
+     */
+    public synchronized void resize(int threads) {
+        if (threads > getMaximumPoolSize()) {
+            setMaximumPoolSize(threads);
+            setCorePoolSize(threads);
+        } else {
+            setCorePoolSize(threads);
+            setMaximumPoolSize(threads);
+        }
+    }
+
     @Override
     public int getActiveCount() {
         return counter.intValue();
@@ -30,6 +47,9 @@ public class StatsThreadPoolExecutor extends ThreadPoolExecutor {
     protected void beforeExecute(Thread t, Runnable r) {
         super.beforeExecute(t, r);
         counter.increment();
+        if (r instanceof QueuedTask) {
+            NearRuntimeHelper.INSTANCE.queued((QueuedTask) r);
+        }
     }
 
     @Override
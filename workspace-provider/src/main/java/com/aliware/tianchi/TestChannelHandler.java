@@ -1,5 +1,13 @@
 package com.aliware.tianchi;
 
+import com.aliware.tianchi.common.metric.ServiceBulkhead;
+import com.aliware.tianchi.common.util.DubboUtil;
+import com.aliware.tianchi.util.DroppableTask;
+import com.aliware.tianchi.util.NearRuntimeHelper;
+import com.aliware.tianchi.util.PortDomain;
+import com.aliware.tianchi.util.PortRequestLimiter;
+import com.aliware.tianchi.util.QueuedTask;
+import com.aliware.tianchi.util.ThreadPoolUtil;
 import org.apache.dubbo.common.URL;
 import org.apache.dubbo.common.extension.ExtensionLoader;
 import org.apache.dubbo.remoting.Channel;
@@ -11,13 +19,16 @@ import org.apache.dubbo.remoting.exchange.Response;
 import org.apache.dubbo.remoting.transport.RequestLimiter;
 import org.apache.dubbo.remoting.transport.dispatcher.ChannelEventRunnable;
 import org.apache.dubbo.remoting.transport.dispatcher.WrappedChannelHandler;
+import org.apache.dubbo.rpc.RpcResult;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
 
 /**
  * @author yangxf
@@ -39,37 +50,59 @@ public class TestChannelHandler extends WrappedChannelHandler {
 
     @Override
     public void received(Channel channel, Object message) throws RemotingException {
+        long deadline = 0;
+        ServiceBulkhead.Partition partition = null;
+        ServiceBulkhead.Permit permit = null;
         if (message instanceof Request) {
+            NearRuntimeHelper.INSTANCE.getConsumerDemand().arrive(channel.getRemoteAddress());
+            if (NearRuntimeHelper.INSTANCE.getConfiguration().isOpenDeadlineDrop()) {
+                deadline = DubboUtil.getDeadlineMillis(((Request) message).getData());
+                if (deadline > 0 && !canFinish(deadline)) {
+                    dropRequest(channel, (Request) message, deadline, "deadline exceeded");
+                    return;
+                }
+            }
             for (RequestLimiter requestLimiter : requestLimiterSet) {
-                if (!requestLimiter.tryAcquire((Request) message, ((ThreadPoolExecutor) executor).getActiveCount())) {
+                int activeCount = ThreadPoolUtil.getActiveCount(executor);
+                boolean acquired = requestLimiter instanceof PortRequestLimiter ?
+                        ((PortRequestLimiter) requestLimiter).tryAcquire(url.getPort(), (Request) message, activeCount) :
+                        requestLimiter.tryAcquire((Request) message, activeCount);
+                if (!acquired) {
                     Request request = (Request) message;
+                    NearRuntimeHelper.INSTANCE.rejection(url.getPort(), request.getData());
                     if (request.isTwoWay()) {
-                        String msg = "TEST Server side(" + url.getIp() + "," + url.getPort() + ") request limiter acquired failed";
-                        Response response = new Response(request.getId(), request.getVersion());
-                        response.setStatus(Response.SERVER_REQUEST_LIMIT);
-                        response.setErrorMessage(msg);
-                        channel.send(response);
+                        reject(channel, request, "request limiter acquired failed");
                         return;
                     }
                     throw new ExecutionException(message, channel, getClass() + " error when process received event .");
                 }
             }
+            // 在提交给线程池之前按服务隔离，慢服务不能占用其他服务的预留线程
+            partition = NearRuntimeHelper.INSTANCE.getPartition(url.getPort(), ((Request) message).getData());
+            if (nonNull(partition) && isNull(permit = partition.tryAcquire())) {
+                dropRequest(channel, (Request) message, 0, "bulkhead of " + partition.getServiceId() + " is full");
+                return;
+            }
         }
         ExecutorService executor = getExecutorService();
+        Runnable task = new ChannelEventRunnable(channel, handler, ChannelEventRunnable.ChannelState.RECEIVED, message);
+        if (message instanceof Request) {
+            task = new RequestRunnable(channel, (Request) message, deadline, partition, permit, task);
+        }
         try {
-            executor.execute(new ChannelEventRunnable(channel, handler, ChannelEventRunnable.ChannelState.RECEIVED, message));
+            executor.execute(task);
         } catch (Throwable t) {
+            if (task instanceof RequestRunnable) {
+                ((RequestRunnable) task).release();
+            }
             //TODO A temporary solution to the problem that the exception information can not be sent to the opposite end after the thread pool is full. Need a refactoring
             //fix The thread pool is full, refuses to call, does not return, and causes the consumer to wait for time out
             if (message instanceof Request && t instanceof RejectedExecutionException) {
                 Request request = (Request) message;
+                NearRuntimeHelper.INSTANCE.rejection(url.getPort(), request.getData());
+                NearRuntimeHelper.INSTANCE.overload(url.getPort());
                 if (request.isTwoWay()) {
-                    String msg = "Server side(" + url.getIp() + "," + url.getPort() + ") threadpool is exhausted ,detail msg:" + t
-                            .getMessage();
-                    Response response = new Response(request.getId(), request.getVersion());
-                    response.setStatus(Response.SERVER_THREADPOOL_EXHAUSTED_ERROR);
-                    response.setErrorMessage(msg);
-                    channel.send(response);
+                    reject(channel, request, "threadpool is exhausted ,detail msg:" + t.getMessage());
                     return;
                 }
             }
@@ -77,6 +110,119 @@ public class TestChannelHandler extends WrappedChannelHandler {
         }
     }
 
+    /**
+     * 按本端口最近的平均处理时间估计请求能否在截止时间前完成
+     */
+    private boolean canFinish(long deadline) {
+        PortDomain domain = NearRuntimeHelper.INSTANCE.getDomain(url.getPort());
+        double serviceTimeMs = nonNull(domain) ? domain.getServiceTimeMs() : 0;
+        return System.currentTimeMillis() + serviceTimeMs < deadline;
+    }
+
+    /**
+     * 消费者已经超时的请求不再回复，否则回复错误让消费者尽快重试
+     *
+     * @param deadline 没有截止时间时为 0
+     */
+    private void dropRequest(Channel channel, Request request, long deadline, String reason) {
+        NearRuntimeHelper.INSTANCE.rejection(url.getPort(), request.getData());
+        if (request.isTwoWay() && (deadline == 0 || System.currentTimeMillis() < deadline)) {
+            try {
+                reject(channel, request, reason);
+            } catch (RemotingException e) {
+                // 消费者会自己超时
+            }
+        }
+    }
+
+    /**
+     * 所有过载拒绝（限流、线程池满、服务隔离已满、截止时间、排队超时）都用正常响应携带 {@link DubboUtil#limitExceeded} 回复，
+     * 错误码随异常一起序列化到网关；非 OK 状态的响应到网关后只剩下错误信息，只能按文本识别
+     */
+    private void reject(Channel channel, Request request, String reason) throws RemotingException {
+        Response response = new Response(request.getId(), request.getVersion());
+        response.setResult(new RpcResult(DubboUtil.limitExceeded(
+                "TEST Server side(" + url.getIp() + "," + url.getPort() + ") " + reason)));
+        channel.send(response);
+    }
+
+    /**
+     * 在工作线程开始执行前再检查一次截止时间，丢弃在队列中等待过久的请求；
+     * 入队时间用于统计排队时间；
+     * 也可以被工作队列（如 {@link com.aliware.tianchi.util.CoDelBlockingQueue}）直接丢弃；
+     * 执行完或被丢弃时归还服务的并发
+     */
+    private class RequestRunnable implements DroppableTask, QueuedTask {
+        private final Channel channel;
+        private final Request request;
+        private final long deadline;
+        private final Runnable task;
+        private final long enqueueNanos = System.nanoTime();
+
+        /**
+         * 没有开启隔离时为 null
+         */
+        private final ServiceBulkhead.Partition partition;
+        private final ServiceBulkhead.Permit permit;
+
+        /**
+         * 执行和丢弃不会同时发生，但执行时可能转为丢弃
+         */
+        private boolean released;
+
+        RequestRunnable(Channel channel, Request request, long deadline, ServiceBulkhead.Partition partition,
+                        ServiceBulkhead.Permit permit, Runnable task) {
+            this.channel = channel;
+            this.request = request;
+            this.deadline = deadline;
+            this.partition = partition;
+            this.permit = permit;
+            this.task = task;
+        }
+
+        void release() {
+            if (nonNull(partition) && !released) {
+                released = true;
+                partition.release(permit);
+            }
+        }
+
+        @Override
+        public long getEnqueueNanos() {
+            return enqueueNanos;
+        }
+
+        @Override
+        public Object getData() {
+            return request.getData();
+        }
+
+        @Override
+        public int getPort() {
+            return url.getPort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (deadline == 0 || canFinish(deadline)) {
+                    task.run();
+                } else {
+                    drop("deadline exceeded");
+                }
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public void drop(String reason) {
+            release();
+            NearRuntimeHelper.INSTANCE.overload(url.getPort());
+            dropRequest(channel, request, deadline, reason);
+        }
+    }
+
     @Override
     public void caught(Channel channel, Throwable exception) throws RemotingException {
         ExecutorService executor = getExecutorService();
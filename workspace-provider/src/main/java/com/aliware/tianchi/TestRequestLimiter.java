@@ -1,13 +1,15 @@
 package com.aliware.tianchi;
 
-import com.aliware.tianchi.common.metric.InstanceStats;
+import com.aliware.tianchi.common.metric.GradientLimiter;
 import com.aliware.tianchi.common.util.RuntimeInfo;
 import com.aliware.tianchi.util.NearRuntimeHelper;
+import com.aliware.tianchi.util.PortDomain;
+import com.aliware.tianchi.util.PortRequestLimiter;
 import org.apache.dubbo.remoting.exchange.Request;
-import org.apache.dubbo.remoting.transport.RequestLimiter;
 
 import java.util.concurrent.ThreadLocalRandom;
 
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
 import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
 
 /**
@@ -17,22 +19,31 @@ import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
  * 可选接口
  * 在提交给后端线程池之前的扩展，可以用于服务端控制拒绝请求
  */
-public class TestRequestLimiter implements RequestLimiter {
+public class TestRequestLimiter implements PortRequestLimiter {
 
     private static final double THRESHOLD = .99d;
     private final NearRuntimeHelper helper = NearRuntimeHelper.INSTANCE;
 
     /**
+     * 不知道请求所在的端口，不限流；{@link TestChannelHandler} 总是调用带端口的版本
+     */
+    @Override
+    public boolean tryAcquire(Request request, int activeTaskCount) {
+        return true;
+    }
+
+    /**
+     * @param port            接收请求的协议端口
      * @param request         服务请求
      * @param activeTaskCount 服务端对应线程池的活跃线程数
      * @return false 不提交给服务端业务线程池直接返回，客户端可以在 Filter 中捕获 RpcException
      * true 不限流
      */
     @Override
-    public boolean tryAcquire(Request request, int activeTaskCount) {
-        InstanceStats stats = helper.getInstanceStats();
-        if (nonNull(stats)) {
-            stats.setActiveCount(activeTaskCount);
+    public boolean tryAcquire(int port, Request request, int activeTaskCount) {
+        PortDomain domain = helper.getDomain(port);
+        if (nonNull(domain)) {
+            domain.getStats().setActiveCount(activeTaskCount);
             RuntimeInfo runtimeInfo = helper.getRuntimeInfo();
             if (nonNull(runtimeInfo)) {
                 double processCpuLoad = runtimeInfo.getProcessCpuLoad();
@@ -42,9 +53,21 @@ public class TestRequestLimiter implements RequestLimiter {
                     return r > rate;
                 }
             }
-            return activeTaskCount < stats.getDomainThreads();
+            return activeTaskCount < admissionLimit(domain);
         }
         return true;
     }
 
+    /**
+     * 在途请求数直接用线程池的活跃数（无锁计数），不需要额外的获取/归还
+     */
+    private int admissionLimit(PortDomain domain) {
+        int threads = domain.getThreads();
+        GradientLimiter limiter = domain.getLimiter();
+        if (isNull(limiter) || !helper.getConfiguration().isOpenAdaptiveLimit()) {
+            return threads;
+        }
+        return Math.min(threads, limiter.getLimit());
+    }
+
 }
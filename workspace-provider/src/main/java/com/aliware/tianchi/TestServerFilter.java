@@ -1,10 +1,12 @@
 package com.aliware.tianchi;
 
+import com.aliware.tianchi.common.metric.GradientLimiter;
 import com.aliware.tianchi.common.metric.InstanceStats;
 import com.aliware.tianchi.common.metric.SnapshotStats;
 import com.aliware.tianchi.common.util.DubboUtil;
 import com.aliware.tianchi.common.util.MathUtil;
 import com.aliware.tianchi.util.NearRuntimeHelper;
+import com.aliware.tianchi.util.PortDomain;
 import org.apache.dubbo.common.Constants;
 import org.apache.dubbo.common.extension.Activate;
 import org.apache.dubbo.rpc.*;
@@ -13,6 +15,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
 
 /**
  * @author daofeng.xjf
@@ -26,9 +29,12 @@ public class TestServerFilter implements Filter {
 
     private static final String START_MILLIS = "START_MILLIS";
 
+    private static final String START_NANOS = "START_NANOS";
+
     @Override
     public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
         invocation.getAttachments().put(START_MILLIS, String.valueOf(System.currentTimeMillis()));
+        invocation.getAttachments().put(START_NANOS, String.valueOf(System.nanoTime()));
         return invoker.invoke(invocation);
     }
 
@@ -36,8 +42,8 @@ public class TestServerFilter implements Filter {
     public Result onResponse(Result result, Invoker<?> invoker, Invocation invocation) {
         String serviceId = DubboUtil.getServiceId(invoker, invocation);
 
-        NearRuntimeHelper helper = NearRuntimeHelper.INSTANCE;
-        InstanceStats stats = helper.getOrCreateInstanceStats(invoker);
+        PortDomain domain = NearRuntimeHelper.INSTANCE.getOrCreateDomain(invoker);
+        InstanceStats stats = domain.getStats();
 
         String att = invocation.getAttachment(START_MILLIS);
 
@@ -49,6 +55,15 @@ public class TestServerFilter implements Filter {
             stats.success(serviceId, duration);
         }
 
+        // 完成时已经过了消费者的截止时间，消费者那边已经超时，按超时计入让并发上限退避；
+        // 线程池满和排队超时在 TestChannelHandler 中计入
+        GradientLimiter limiter = domain.getLimiter();
+        String startNanos = invocation.getAttachment(START_NANOS);
+        if (nonNull(limiter) && nonNull(startNanos)) {
+            long deadline = DubboUtil.getDeadlineMillis(invocation);
+            boolean timeout = deadline > 0 && System.currentTimeMillis() > deadline;
+            limiter.onSample(System.nanoTime() - Long.parseLong(startNanos), stats.getActiveCount(), timeout);
+        }
 
         return result;
     }
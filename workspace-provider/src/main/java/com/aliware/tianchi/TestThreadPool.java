@@ -1,14 +1,22 @@
 package com.aliware.tianchi;
 
+import com.aliware.tianchi.common.conf.Configuration;
+import com.aliware.tianchi.util.CoDelBlockingQueue;
+import com.aliware.tianchi.util.DroppableTask;
+import com.aliware.tianchi.util.NearRuntimeHelper;
 import com.aliware.tianchi.util.ThreadPoolStats;
 import org.apache.dubbo.common.Constants;
 import org.apache.dubbo.common.URL;
 import org.apache.dubbo.common.extension.Adaptive;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
 import org.apache.dubbo.common.threadlocal.NamedInternalThreadFactory;
 import org.apache.dubbo.common.threadpool.ThreadPool;
 import org.apache.dubbo.common.threadpool.support.AbortPolicyWithReport;
 import org.apache.dubbo.common.utils.ConcurrentHashSet;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.LockSupport;
@@ -24,14 +32,24 @@ import static com.aliware.tianchi.util.ThreadPoolUtil.getMaybeBlocker;
 @Adaptive
 public class TestThreadPool implements ThreadPool {
 
+    private static final Logger logger = LoggerFactory.getLogger(TestThreadPool.class);
+
     private final Set<Thread> threadSet = new ConcurrentHashSet<>();
 
-    private ThreadPoolExecutor executor;
+    /**
+     * key: 协议端口，每个端口一个线程池
+     */
+    private final Map<Integer, ExecutorService> executors = new HashMap<>();
 
-    private Object maybeBlocker;
+    /**
+     * 各线程池空闲线程阻塞所在的对象
+     */
+    private final Set<Object> maybeBlockers = new ConcurrentHashSet<>();
 
     @Override
     public synchronized Executor getExecutor(URL url) {
+        int port = url.getPort();
+        ExecutorService executor = executors.get(port);
         if (executor != null) {
             return executor;
         }
@@ -39,14 +57,41 @@ public class TestThreadPool implements ThreadPool {
         String name = url.getParameter(Constants.THREAD_NAME_KEY, Constants.DEFAULT_THREAD_NAME);
         int threads = url.getParameter(Constants.THREADS_KEY, Constants.DEFAULT_THREADS);
         int queues = url.getParameter(Constants.QUEUES_KEY, Constants.DEFAULT_QUEUES);
-        BlockingQueue<Runnable> workQueue = queues == 0 ? new SynchronousQueue<>() :
-                (queues < 0 ? new LinkedBlockingQueue<>() : new LinkedBlockingQueue<>(queues));
-        maybeBlocker = getMaybeBlocker(workQueue);
+        Configuration conf = NearRuntimeHelper.INSTANCE.getConfiguration();
+        if (conf.isOpenWorkStealing()) {
+            WorkStealingExecutor wsExecutor =
+                    new WorkStealingExecutor(threads,
+                                             queues > 0 ? queues : (queues < 0 ? Integer.MAX_VALUE : threads),
+                                             new StatsNamedThreadFactory(name, true));
+            maybeBlockers.add(wsExecutor.getIdleBlocker());
+            executors.put(port, wsExecutor);
+            return wsExecutor;
+        }
+
+        // queues 的含义与 dubbo 一致：0 不排队，负数不限长度；不排队时没有排队时间可控，不使用 CoDel
+        BlockingQueue<Runnable> workQueue;
+        if (conf.isOpenCoDelQueue() && queues == 0) {
+            logger.warn("CoDel queue is ignored on port " + port + " because queues=0 means no queueing");
+        }
+        if (conf.isOpenCoDelQueue() && queues != 0) {
+            workQueue = new CoDelBlockingQueue(queues > 0 ? queues : Integer.MAX_VALUE,
+                                               TimeUnit.MILLISECONDS.toNanos(conf.getCodelTargetMs()),
+                                               TimeUnit.MILLISECONDS.toNanos(conf.getCodelIntervalMs()),
+                                               TestThreadPool::drop);
+        } else {
+            workQueue = queues == 0 ? new SynchronousQueue<>() :
+                    (queues < 0 ? new LinkedBlockingQueue<>() : new LinkedBlockingQueue<>(queues));
+        }
+        Object maybeBlocker = getMaybeBlocker(workQueue);
+        if (maybeBlocker != null) {
+            maybeBlockers.add(maybeBlocker);
+        }
         executor = new StatsThreadPoolExecutor(threads, threads,
                                                0, TimeUnit.MILLISECONDS,
                                                workQueue,
                                                new StatsNamedThreadFactory(name, true),
                                                new AbortPolicyWithReport(name, url));
+        executors.put(port, executor);
         return executor;
     }
 
@@ -67,7 +112,7 @@ public class TestThreadPool implements ThreadPool {
                 continue;
             }
 
-            if (blocker == maybeBlocker) {
+            if (maybeBlockers.contains(blocker)) {
                 frees++;
             } else {
                 waits++;
@@ -95,6 +140,12 @@ public class TestThreadPool implements ThreadPool {
         };
     }
 
+    private static void drop(Runnable r) {
+        if (r instanceof DroppableTask) {
+            ((DroppableTask) r).drop("queue timeout");
+        }
+    }
+
     class StatsNamedThreadFactory extends NamedInternalThreadFactory {
         StatsNamedThreadFactory(String prefix, boolean daemon) {
             super(prefix, daemon);
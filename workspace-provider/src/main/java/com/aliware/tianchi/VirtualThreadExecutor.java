@@ -0,0 +1,146 @@
+package com.aliware.tianchi;
+
+import com.aliware.tianchi.util.ThreadPoolStats;
+import com.aliware.tianchi.util.ThreadPoolStatsAware;
+import org.apache.dubbo.common.threadlocal.NamedInternalThreadFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+
+/**
+ * 每个任务一个线程，并发数由信号量限制，信号量的许可数随并发上限动态变化
+ * <p>
+ * JVM 支持虚拟线程（JDK 21+）时使用虚拟线程，否则退化为按需创建的平台线程
+ *
+ * @author yangxf
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService implements ThreadPoolStatsAware {
+
+    private final ExecutorService delegate;
+
+    private final boolean virtual;
+
+    /**
+     * 当前的许可数
+     */
+    private final IntSupplier permits;
+
+    /**
+     * 已占用的许可数，CAS 维护，不阻塞 io 线程
+     */
+    private final AtomicInteger acquired = new AtomicInteger();
+
+    public VirtualThreadExecutor(String name, IntSupplier permits) {
+        checkNotNull(permits, "permits");
+        this.permits = permits;
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        virtual = executor != null;
+        delegate = virtual ? executor :
+                new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                                       60, TimeUnit.SECONDS,
+                                       new SynchronousQueue<>(),
+                                       new NamedInternalThreadFactory(name, true));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        checkNotNull(command, "command");
+        for (; ; ) {
+            int n = acquired.get();
+            if (n >= permits.getAsInt()) {
+                throw new RejectedExecutionException("no permits, acquired=" + n);
+            }
+            if (acquired.compareAndSet(n, n + 1)) {
+                break;
+            }
+        }
+        try {
+            delegate.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    acquired.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            acquired.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 线程状态直接由信号量得到：占用的许可在工作，剩余的许可空闲，不区分阻塞等待
+     */
+    @Override
+    public ThreadPoolStats getThreadPoolStats() {
+        int works = acquired.get();
+        int frees = Math.max(0, permits.getAsInt() - works);
+        return new ThreadPoolStats() {
+            @Override
+            public int freeCount() {
+                return frees;
+            }
+
+            @Override
+            public int waitCount() {
+                return 0;
+            }
+
+            @Override
+            public int workCount() {
+                return works;
+            }
+        };
+    }
+
+    @Override
+    public int getActiveCount() {
+        return acquired.get();
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 编译目标是 1.8，通过反射获取 JDK 21 的虚拟线程执行器
+     *
+     * @return 不支持时返回 null
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
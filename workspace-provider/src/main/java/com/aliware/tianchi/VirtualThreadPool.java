@@ -0,0 +1,52 @@
+package com.aliware.tianchi;
+
+import com.aliware.tianchi.common.metric.GradientLimiter;
+import com.aliware.tianchi.util.NearRuntimeHelper;
+import com.aliware.tianchi.util.PortDomain;
+import org.apache.dubbo.common.Constants;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.threadpool.ThreadPool;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
+
+/**
+ * 虚拟线程池，并发数跟随服务端的自适应并发上限，threads 参数作为最大值
+ * <p>
+ * 使用方式：&lt;dubbo:protocol threadpool="virtual" /&gt;
+ *
+ * @author yangxf
+ */
+public class VirtualThreadPool implements ThreadPool {
+
+    /**
+     * key: 协议端口，每个端口一个执行器
+     */
+    private final Map<Integer, VirtualThreadExecutor> executors = new HashMap<>();
+
+    @Override
+    public synchronized Executor getExecutor(URL url) {
+        int port = url.getPort();
+        VirtualThreadExecutor executor = executors.get(port);
+        if (executor != null) {
+            return executor;
+        }
+
+        String name = url.getParameter(Constants.THREAD_NAME_KEY, Constants.DEFAULT_THREAD_NAME);
+        int threads = url.getParameter(Constants.THREADS_KEY, Constants.DEFAULT_THREADS);
+        NearRuntimeHelper helper = NearRuntimeHelper.INSTANCE;
+        executor = new VirtualThreadExecutor(name, () -> {
+            PortDomain domain = helper.getDomain(port);
+            GradientLimiter limiter = nonNull(domain) ? domain.getLimiter() : null;
+            if (nonNull(limiter) && helper.getConfiguration().isOpenAdaptiveLimit()) {
+                return Math.min(threads, limiter.getLimit());
+            }
+            return threads;
+        });
+        executors.put(port, executor);
+        return executor;
+    }
+}
@@ -0,0 +1,315 @@
+package com.aliware.tianchi;
+
+import com.aliware.tianchi.util.NearRuntimeHelper;
+import com.aliware.tianchi.util.QueuedTask;
+import com.aliware.tianchi.util.ThreadPoolStats;
+import com.aliware.tianchi.util.ThreadPoolStatsAware;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
+
+/**
+ * 每个工作线程一个无锁队列的执行器
+ * <p>
+ * io 线程随机选两个工作线程，优先投给空闲的、否则投给排队少的（power of two choices）；
+ * 工作线程先处理自己的队列，空了再从其他队列窃取，都没有时 park 在 {@link #getIdleBlocker()} 上。
+ * 没有全局锁和全局计数器，投递的竞争只在两个被选中的队列上
+ *
+ * @author yangxf
+ */
+public class WorkStealingExecutor extends AbstractExecutorService implements ThreadPoolStatsAware {
+
+    private final Worker[] workers;
+
+    /**
+     * 单个工作线程的队列上限
+     */
+    private final int queueCapacity;
+
+    private final Object idleBlocker = new Object();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final LongAdder activeCount = new LongAdder();
+
+    private final CountDownLatch terminated;
+
+    private volatile int runState;
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    /**
+     * @param capacity 所有队列合计的上限，平均分给每个工作线程
+     */
+    public WorkStealingExecutor(int threads, int capacity, ThreadFactory threadFactory) {
+        checkNotNull(threadFactory, "threadFactory");
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        workers = new Worker[threads];
+        queueCapacity = (int) Math.max(1, ((long) capacity + threads - 1) / threads);
+        terminated = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, threadFactory);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        checkNotNull(command, "command");
+        if (runState != RUNNING) {
+            throw new RejectedExecutionException("executor has been shutdown");
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Worker a = workers[random.nextInt(workers.length)];
+        Worker b = workers[random.nextInt(workers.length)];
+        Worker target = a.idle ? a : b.idle ? b : a.pending.get() <= b.pending.get() ? a : b;
+        if (!target.offer(command)) {
+            Worker other = target == a ? b : a;
+            if (!other.offer(command)) {
+                throw new RejectedExecutionException("work queues are full");
+            }
+            target = other;
+        }
+
+        if (target.idle) {
+            LockSupport.unpark(target.thread);
+        } else if (idleCount.get() > 0) {
+            // 目标线程在忙，叫醒一个空闲线程来窃取
+            wakeupIdle(random.nextInt(workers.length));
+        }
+    }
+
+    /**
+     * 空闲的工作线程 park 时使用的 blocker
+     */
+    public Object getIdleBlocker() {
+        return idleBlocker;
+    }
+
+    @Override
+    public int getActiveCount() {
+        return activeCount.intValue();
+    }
+
+    /**
+     * 空闲：park 在 idleBlocker 上；等待：park 在其他对象上；其余都算工作中
+     */
+    @Override
+    public ThreadPoolStats getThreadPoolStats() {
+        int frees = 0, waits = 0, works = 0;
+        for (Worker worker : workers) {
+            Thread t = worker.thread;
+            Thread.State state = t.getState();
+            Object blocker;
+            if (state != Thread.State.WAITING &&
+                state != Thread.State.TIMED_WAITING ||
+                isNull(blocker = LockSupport.getBlocker(t))) {
+                works++;
+            } else if (blocker == idleBlocker) {
+                frees++;
+            } else {
+                waits++;
+            }
+        }
+
+        int finalFrees = frees;
+        int finalWaits = waits;
+        int finalWorks = works;
+        return new ThreadPoolStats() {
+            @Override
+            public int freeCount() {
+                return finalFrees;
+            }
+
+            @Override
+            public int waitCount() {
+                return finalWaits;
+            }
+
+            @Override
+            public int workCount() {
+                return finalWorks;
+            }
+        };
+    }
+
+    @Override
+    public void shutdown() {
+        runState = Math.max(runState, SHUTDOWN);
+        wakeupAll();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        runState = STOP;
+        List<Runnable> remains = new ArrayList<>();
+        for (Worker worker : workers) {
+            Runnable r;
+            while (nonNull(r = worker.poll())) {
+                remains.add(r);
+            }
+        }
+        wakeupAll();
+        return remains;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    private void wakeupIdle(int offset) {
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[(offset + i) % workers.length];
+            if (worker.idle) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private void wakeupAll() {
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private Runnable steal(int self) {
+        int n = workers.length;
+        int offset = ThreadLocalRandom.current().nextInt(n);
+        for (int i = 0; i < n; i++) {
+            int k = (offset + i) % n;
+            if (k == self) {
+                continue;
+            }
+            Runnable r = workers[k].poll();
+            if (nonNull(r)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    private final class Worker implements Runnable {
+        final int index;
+        final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 队列长度，ConcurrentLinkedQueue.size() 是 O(n) 的
+         */
+        final AtomicInteger pending = new AtomicInteger();
+
+        volatile boolean idle;
+
+        final Thread thread;
+
+        Worker(int index, ThreadFactory threadFactory) {
+            this.index = index;
+            this.thread = threadFactory.newThread(this);
+        }
+
+        boolean offer(Runnable r) {
+            for (; ; ) {
+                int n = pending.get();
+                if (n >= queueCapacity) {
+                    return false;
+                }
+                if (pending.compareAndSet(n, n + 1)) {
+                    break;
+                }
+            }
+            queue.offer(r);
+            return true;
+        }
+
+        Runnable poll() {
+            Runnable r = queue.poll();
+            if (nonNull(r)) {
+                pending.decrementAndGet();
+            }
+            return r;
+        }
+
+        Runnable next() {
+            Runnable r = poll();
+            return nonNull(r) ? r : steal(index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (; ; ) {
+                    if (runState == STOP) {
+                        return;
+                    }
+                    Runnable r = next();
+                    if (isNull(r)) {
+                        if (runState != RUNNING) {
+                            return;
+                        }
+                        // 先声明空闲再检查一次，与 execute 中的 offer 后检查 idle 配对，不会丢失唤醒
+                        idle = true;
+                        idleCount.incrementAndGet();
+                        r = next();
+                        if (isNull(r) && runState == RUNNING) {
+                            LockSupport.park(idleBlocker);
+                        }
+                        idle = false;
+                        idleCount.decrementAndGet();
+                        if (isNull(r)) {
+                            continue;
+                        }
+                    }
+                    runTask(r);
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        private void runTask(Runnable r) {
+            activeCount.increment();
+            if (r instanceof QueuedTask) {
+                NearRuntimeHelper.INSTANCE.queued((QueuedTask) r);
+            }
+            try {
+                r.run();
+            } catch (Throwable t) {
+                // 与线程池不同，异常不会终止工作线程
+                Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+                if (nonNull(handler)) {
+                    handler.uncaughtException(thread, t);
+                }
+            } finally {
+                activeCount.decrement();
+                Thread.interrupted();
+            }
+        }
+    }
+}
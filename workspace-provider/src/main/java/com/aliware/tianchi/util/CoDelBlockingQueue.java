@@ -0,0 +1,313 @@
+package com.aliware.tianchi.util;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
+
+/**
+ * CoDel + 自适应 LIFO 的有界工作队列
+ * <p>
+ * 队列在 interval 内没有排空过（等价于这段时间内最小排队时间大于 0）视为拥塞：
+ * 不拥塞时 FIFO，排队超过 interval 的任务被丢弃；
+ * 拥塞时 LIFO 优先处理最新的请求，排队超过 target 的任务被丢弃。
+ * <p>
+ * 空闲的工作线程阻塞在 notEmpty 上，与 {@link ThreadPoolUtil#getMaybeBlocker} 的空闲线程识别兼容
+ *
+ * @author yangxf
+ */
+public class CoDelBlockingQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private final int capacity;
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final Consumer<Runnable> onDrop;
+
+    private final ArrayDeque<Node> deque = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 字段名不能修改，{@link ThreadPoolUtil#getMaybeBlocker} 按名字反射读取
+     */
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * 只有 {@link #put(Runnable)} 会在上面等待，线程池只用不等待的 offer
+     */
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * 最近一次队列为空的时间，只在持有锁时读写
+     */
+    private long lastEmptyNanos = System.nanoTime();
+
+    public CoDelBlockingQueue(int capacity, long targetNanos, long intervalNanos, Consumer<Runnable> onDrop) {
+        checkNotNull(onDrop, "onDrop");
+        this.capacity = capacity;
+        this.targetNanos = targetNanos;
+        this.intervalNanos = intervalNanos;
+        this.onDrop = onDrop;
+    }
+
+    @Override
+    public boolean offer(Runnable r) {
+        checkNotNull(r, "r");
+        lock.lock();
+        try {
+            if (deque.size() >= capacity) {
+                return false;
+            }
+            enqueue(r);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) {
+        // 工作队列满时不等待，由线程池拒绝
+        return offer(r);
+    }
+
+    @Override
+    public void put(Runnable r) throws InterruptedException {
+        checkNotNull(r, "r");
+        lock.lockInterruptibly();
+        try {
+            while (deque.size() >= capacity) {
+                notFull.await();
+            }
+            enqueue(r);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        List<Runnable> dropped = null;
+        lock.lockInterruptibly();
+        try {
+            for (; ; ) {
+                dropped = drainExpired(dropped);
+                Node node = dequeue();
+                if (nonNull(node)) {
+                    return node.task;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+            dropAll(dropped);
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        List<Runnable> dropped = null;
+        lock.lockInterruptibly();
+        try {
+            for (; ; ) {
+                dropped = drainExpired(dropped);
+                Node node = dequeue();
+                if (nonNull(node)) {
+                    return node.task;
+                }
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+            dropAll(dropped);
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        List<Runnable> dropped = null;
+        lock.lock();
+        try {
+            dropped = drainExpired(null);
+            Node node = dequeue();
+            return nonNull(node) ? node.task : null;
+        } finally {
+            lock.unlock();
+            dropAll(dropped);
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            Node node = deque.peekFirst();
+            return nonNull(node) ? node.task : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            Iterator<Node> it = deque.iterator();
+            while (it.hasNext()) {
+                if (it.next().task.equals(o)) {
+                    it.remove();
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return deque.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - deque.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回快照上的迭代器，不支持 remove
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> tasks = new ArrayList<>(deque.size());
+            for (Node node : deque) {
+                tasks.add(node.task);
+            }
+            return Collections.unmodifiableList(tasks).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        checkNotNull(c, "c");
+        lock.lock();
+        try {
+            int n = 0;
+            Node node;
+            while (n < maxElements && nonNull(node = deque.pollFirst())) {
+                c.add(node.task);
+                n++;
+            }
+            if (n > 0) {
+                notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isCongested(long now) {
+        return now - lastEmptyNanos > intervalNanos;
+    }
+
+    /**
+     * 从队头丢弃排队超时的任务，持有锁时调用
+     */
+    private List<Runnable> drainExpired(List<Runnable> dropped) {
+        long now = System.nanoTime();
+        long timeout = isCongested(now) ? targetNanos : intervalNanos;
+        Node head;
+        while (nonNull(head = deque.peekFirst()) && now - head.enqueueNanos > timeout) {
+            deque.pollFirst();
+            if (dropped == null) {
+                dropped = new ArrayList<>();
+            }
+            dropped.add(head.task);
+            notFull.signal();
+        }
+        return dropped;
+    }
+
+    /**
+     * 持有锁且队列未满时调用
+     */
+    private void enqueue(Runnable r) {
+        long now = System.nanoTime();
+        if (deque.isEmpty()) {
+            lastEmptyNanos = now;
+        }
+        deque.offerLast(new Node(r, now));
+        notEmpty.signal();
+    }
+
+    /**
+     * 持有锁时调用
+     */
+    private Node dequeue() {
+        long now = System.nanoTime();
+        Node node = isCongested(now) ? deque.pollLast() : deque.pollFirst();
+        if (deque.isEmpty()) {
+            lastEmptyNanos = now;
+        }
+        if (nonNull(node)) {
+            notFull.signal();
+        }
+        return node;
+    }
+
+    /**
+     * 在锁外通知被丢弃的任务
+     */
+    private void dropAll(List<Runnable> dropped) {
+        if (dropped == null) {
+            return;
+        }
+        for (Runnable r : dropped) {
+            try {
+                onDrop.accept(r);
+            } catch (Throwable t) {
+                // 不影响工作线程
+            }
+        }
+    }
+
+    private static final class Node {
+        final Runnable task;
+        final long enqueueNanos;
+
+        Node(Runnable task, long enqueueNanos) {
+            this.task = task;
+            this.enqueueNanos = enqueueNanos;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.aliware.tianchi.util;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
+
+/**
+ * 按消费者连接统计到达的请求数，包括被拒绝的请求
+ * <p>
+ * 以远端 ip:port 区分消费者，同一台机器上的多个网关各自统计，
+ * 与回调注册时的连接地址一一对应；网关重连后地址会变，旧地址由 {@link #remove} 和 {@link #retainAll} 清理
+ *
+ * @author yangxf
+ */
+public class ConsumerDemand {
+
+    /**
+     * key: 消费者连接的远端地址
+     */
+    private final Map<InetSocketAddress, LongAdder> arrivals = new ConcurrentHashMap<>();
+
+    public void arrive(InetSocketAddress consumer) {
+        if (isNull(consumer)) {
+            return;
+        }
+        LongAdder adder = arrivals.get(consumer);
+        if (isNull(adder)) {
+            adder = arrivals.computeIfAbsent(consumer, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    /**
+     * 返回上次调用以来的到达数并清零
+     */
+    public long sumThenReset(InetSocketAddress consumer) {
+        if (isNull(consumer)) {
+            return 0;
+        }
+        LongAdder adder = arrivals.get(consumer);
+        return isNull(adder) ? 0 : adder.sumThenReset();
+    }
+
+    public void remove(InetSocketAddress consumer) {
+        if (nonNull(consumer)) {
+            arrivals.remove(consumer);
+        }
+    }
+
+    /**
+     * 只保留仍有 listener 对应的连接，没有注册回调的连接统计了也用不上
+     */
+    public void retainAll(Collection<InetSocketAddress> consumers) {
+        arrivals.keySet().retainAll(consumers);
+    }
+}
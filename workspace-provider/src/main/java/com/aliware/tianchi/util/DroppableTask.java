@@ -0,0 +1,14 @@
+package com.aliware.tianchi.util;
+
+/**
+ * 可以在执行前被丢弃的任务，丢弃时由任务自己通知请求方
+ *
+ * @author yangxf
+ */
+public interface DroppableTask extends Runnable {
+
+    /**
+     * @param reason 丢弃原因，会带给请求方
+     */
+    void drop(String reason);
+}
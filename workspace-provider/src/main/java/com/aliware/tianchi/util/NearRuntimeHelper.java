@@ -1,10 +1,19 @@
 package com.aliware.tianchi.util;
 
+import com.aliware.tianchi.StatsThreadPoolExecutor;
 import com.aliware.tianchi.common.conf.Configuration;
+import com.aliware.tianchi.common.metric.GradientLimiter;
 import com.aliware.tianchi.common.metric.InstanceStats;
+import com.aliware.tianchi.common.metric.JitWarmup;
 import com.aliware.tianchi.common.metric.ServerStats;
+import com.aliware.tianchi.common.metric.ServiceBulkhead;
 import com.aliware.tianchi.common.metric.TimeWindowInstanceStats;
+import com.aliware.tianchi.common.util.Cgroup;
 import com.aliware.tianchi.common.util.DubboUtil;
+import com.aliware.tianchi.common.util.GcMonitor;
+import com.aliware.tianchi.common.util.JvmUtil;
+import com.aliware.tianchi.common.util.OSUtil;
+import com.aliware.tianchi.common.util.ProcSampler;
 import com.aliware.tianchi.common.util.RuntimeInfo;
 import org.apache.dubbo.common.Constants;
 import org.apache.dubbo.common.URL;
@@ -12,15 +21,24 @@ import org.apache.dubbo.common.extension.ExtensionLoader;
 import org.apache.dubbo.common.logger.Logger;
 import org.apache.dubbo.common.logger.LoggerFactory;
 import org.apache.dubbo.common.store.DataStore;
+import org.apache.dubbo.rpc.Invocation;
 import org.apache.dubbo.rpc.Invoker;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+import static com.aliware.tianchi.common.util.ObjectUtil.isNull;
 import static com.aliware.tianchi.common.util.ObjectUtil.nonNull;
 
 /**
@@ -36,24 +54,61 @@ public class NearRuntimeHelper {
 
     private final ScheduledExecutorService scheduledExecutor;
 
+    /**
+     * 不能读取 /proc 时为 null，退回到按 runtimeInfoQueueSize 个 RuntimeInfo 求平均
+     */
+    private final ProcSampler sampler;
+
+    private final GcMonitor gcMonitor;
+
+    /**
+     * 没有 CPU 配额时为 null
+     */
+    private final Cgroup.ThrottleSampler throttleSampler;
+
+    private volatile double throttledRatio;
+
+    /**
+     * JIT 预热进度，与统计信息一起初始化
+     */
+    private JitWarmup warmup;
+
     private final LinkedList<RuntimeInfo> buf = new LinkedList<>();
 
-    private volatile InstanceStats stats;
+    private final ConsumerDemand consumerDemand = new ConsumerDemand();
+
+    /**
+     * key: 协议端口
+     */
+    private final Map<Integer, PortDomain> domains = new ConcurrentHashMap<>();
+
+    /**
+     * domains 的快照，在 io 线程上遍历时不分配迭代器
+     */
+    private volatile PortDomain[] domainArray = new PortDomain[0];
+
+    /**
+     * key: methodName，服务端解码出的调用到 serviceId 的缓存
+     */
+    private final Map<String, ServiceKey[]> serviceKeys = new ConcurrentHashMap<>();
 
     private volatile RuntimeInfo current;
 
     private AtomicLong epoch;
 
-    private int threads = 200;
-
     private long startNanos;
 
-    private Executor executor;
-
     public NearRuntimeHelper(Configuration conf) {
         checkNotNull(conf);
         this.conf = conf;
         scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        // 与 OperatingSystemMXBean 一致按宿主机 CPU 数归一化，RuntimeInfo 再换算到配额
+        sampler = conf.isOpenRuntimeStats() ?
+                ProcSampler.open(conf.getRuntimeInfoQueueSize(), OSUtil.getNumberOfCpus()) : null;
+        throttleSampler = Cgroup.CURRENT.newThrottleSampler();
+        gcMonitor = conf.isOpenRuntimeStats() ? new GcMonitor() : null;
+        logger.info(Cgroup.CURRENT + ", cpus=" + OSUtil.getNumberOfCpus() +
+                    ", availableProcessors=" + OSUtil.getAvailableProcessors());
     }
 
     public ScheduledExecutorService getScheduledExecutor() {
@@ -68,14 +123,26 @@ public class NearRuntimeHelper {
     }
 
     public void updateRuntimeInfo() {
-        if (conf.isOpenRuntimeStats()) {
+        if (conf.isOpenRuntimeStats() && nonNull(sampler)) {
+            RuntimeInfo info;
+            try {
+                sampler.sample();
+                gcMonitor.sample();
+                info = new RuntimeInfo(sampler, gcMonitor);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("sample runtime info error", e);
+                return;
+            }
+            setRuntimeInfo(info);
+            if (logger.isDebugEnabled()) {
+                logger.debug("update " + info);
+            }
+        } else if (conf.isOpenRuntimeStats()) {
             synchronized (buf) {
-                buf.addFirst(new RuntimeInfo());
+                gcMonitor.sample();
+                buf.addFirst(new RuntimeInfo(null, gcMonitor));
                 RuntimeInfo info = RuntimeInfo.merge(buf.toArray(new RuntimeInfo[0]));
-                if (nonNull(stats)) {
-                    stats.getServerStats().setRuntimeInfo(info);
-                }
-                current = info;
+                setRuntimeInfo(info);
                 logger.info("update " + info);
             }
             if (buf.size() >= conf.getRuntimeInfoQueueSize()) {
@@ -84,56 +151,195 @@ public class NearRuntimeHelper {
         }
     }
 
-    public int getThreads() {
-        return threads;
+    private void setRuntimeInfo(RuntimeInfo info) {
+        for (PortDomain domain : domainArray) {
+            domain.getStats().getServerStats().setRuntimeInfo(info);
+        }
+        current = info;
     }
 
-    public Executor getExecutor() {
-        return executor;
+    /**
+     * 采样 cgroup 的 CPU 限流，每个推送周期调用一次
+     */
+    public void updateThrottling() {
+        if (nonNull(throttleSampler)) {
+            try {
+                throttleSampler.sample();
+                throttledRatio = throttleSampler.getThrottledRatio();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("sample cpu throttling error", e);
+            }
+        }
     }
 
-    public ThreadPoolStats getThreadPoolStats() {
-        return ThreadPoolUtil.getThreadPoolStats(executor);
+    public double getThrottledRatio() {
+        return throttledRatio;
     }
 
-    public long getStartNanos() {
-        return startNanos;
+    /**
+     * 更新 JIT 预热进度，每个推送周期调用一次
+     *
+     * @param serving 本周期是否有请求在处理
+     */
+    public void updateWarmup(boolean serving) {
+        if (nonNull(warmup)) {
+            warmup.update(JvmUtil.getTotalCompilationTime(), System.nanoTime(), serving);
+        }
     }
 
-    public RuntimeInfo getRuntimeInfo() {
-        return current;
+    /**
+     * 统计信息还未初始化时返回 1
+     */
+    public double getWarmupFactor() {
+        return nonNull(warmup) ? warmup.getFactor() : 1;
     }
 
-    public InstanceStats getInstanceStats() {
-        return stats;
+    public ConsumerDemand getConsumerDemand() {
+        return consumerDemand;
     }
 
-    public InstanceStats getOrCreateInstanceStats(Invoker<?> invoker) {
-        if (stats == null) {
-            synchronized (this) {
-                if (stats == null) {
-                    URL url = invoker.getUrl();
-                    int nThreads = url.getParameter(Constants.THREADS_KEY, Constants.DEFAULT_THREADS);
+    /**
+     * 请求被拒绝或丢弃时记录到所在端口的 rejection，统计信息还未初始化时忽略
+     * <p>
+     * 在 io 线程上调用，serviceId 命中缓存时不分配内存
+     */
+    public void rejection(int port, Object data) {
+        PortDomain domain = domains.get(port);
+        if (nonNull(domain) && data instanceof Invocation) {
+            domain.getStats().rejection(getServiceId((Invocation) data));
+        }
+    }
 
-                    stats = newStats(DubboUtil.getIpAddress(invoker), threads = nThreads);
+    /**
+     * 已经接收的请求因线程池满、排队超时或来不及在截止时间前完成而被丢弃，作为过载信号让本端口的并发上限退避；
+     * 限流器自己的拒绝不算，否则上限越小拒绝越多，会一直缩小
+     */
+    public void overload(int port) {
+        PortDomain domain = domains.get(port);
+        GradientLimiter limiter = isNull(domain) ? null : domain.getLimiter();
+        if (nonNull(limiter)) {
+            limiter.onSample(0, domain.getStats().getActiveCount(), true);
+        }
+    }
 
-                    DataStore dataStore = ExtensionLoader.getExtensionLoader(DataStore.class).getDefaultExtension();
+    /**
+     * 记录请求在线程池队列中的等待时间，在工作线程开始执行前调用
+     */
+    public void queued(QueuedTask task) {
+        Object data = task.getData();
+        if (!(data instanceof Invocation)) {
+            return;
+        }
+        PortDomain domain = domains.get(task.getPort());
+        if (nonNull(domain)) {
+            long queueNanos = System.nanoTime() - task.getEnqueueNanos();
+            domain.getStats().queue(getServiceId((Invocation) data), TimeUnit.NANOSECONDS.toMicros(queueNanos));
+        }
+    }
 
-                    executor = (Executor) dataStore.get(Constants.EXECUTOR_SERVICE_COMPONENT_KEY, Integer.toString(url.getPort()));
+    /**
+     * 获取请求所属服务在本端口线程池中的并发划分，没有开启隔离时返回 null
+     * <p>
+     * 在 io 线程上调用，serviceId 命中缓存时不分配内存
+     *
+     * @return 端口还没有初始化或不是调用请求时返回 null
+     */
+    public ServiceBulkhead.Partition getPartition(int port, Object data) {
+        if (!conf.isOpenBulkhead() || !(data instanceof Invocation)) {
+            return null;
+        }
+        PortDomain domain = domains.get(port);
+        return nonNull(domain) ?
+                domain.getBulkhead().getOrCreatePartition(getServiceId((Invocation) data)) : null;
+    }
 
-                    epoch = new AtomicLong(1);
+    /**
+     * @return 还没有请求到达该端口时返回 null
+     */
+    public PortDomain getDomain(int port) {
+        return domains.get(port);
+    }
 
-                    startNanos = System.nanoTime();
+    public Collection<PortDomain> getDomains() {
+        return Arrays.asList(domainArray);
+    }
 
+    private String getServiceId(Invocation invocation) {
+        String methodName = invocation.getMethodName();
+        String path = invocation.getAttachment(Constants.PATH_KEY);
+        Class<?>[] parameterTypes = invocation.getParameterTypes();
+        ServiceKey[] keys = serviceKeys.get(methodName);
+        if (nonNull(keys)) {
+            for (ServiceKey key : keys) {
+                if (key.matches(path, parameterTypes)) {
+                    return key.serviceId;
                 }
             }
         }
-        return stats;
+
+        ServiceKey key = new ServiceKey(path, parameterTypes, DubboUtil.getServiceId(invocation));
+        serviceKeys.merge(methodName, new ServiceKey[]{key}, (prev, cur) -> {
+            ServiceKey[] merged = Arrays.copyOf(prev, prev.length + 1);
+            merged[prev.length] = key;
+            return merged;
+        });
+        return key.serviceId;
+    }
+
+    private static final class ServiceKey {
+        final String path;
+        final Class<?>[] parameterTypes;
+        final String serviceId;
+
+        ServiceKey(String path, Class<?>[] parameterTypes, String serviceId) {
+            this.path = path;
+            this.parameterTypes = parameterTypes;
+            this.serviceId = serviceId;
+        }
+
+        boolean matches(String path, Class<?>[] parameterTypes) {
+            return Objects.equals(this.path, path) && Arrays.equals(this.parameterTypes, parameterTypes);
+        }
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public RuntimeInfo getRuntimeInfo() {
+        return current;
+    }
+
+    /**
+     * 获取调用所在端口的运行时状态，端口第一次有请求响应时按 invoker 的 url 初始化
+     */
+    public PortDomain getOrCreateDomain(Invoker<?> invoker) {
+        int port = invoker.getUrl().getPort();
+        PortDomain domain = domains.get(port);
+        if (isNull(domain)) {
+            synchronized (this) {
+                domain = domains.get(port);
+                if (isNull(domain)) {
+                    domain = newDomain(invoker);
+                    domains.put(port, domain);
+                    PortDomain[] array = Arrays.copyOf(domainArray, domainArray.length + 1);
+                    array[array.length - 1] = domain;
+                    domainArray = array;
+                    if (isNull(epoch)) {
+                        epoch = new AtomicLong(1);
+                        startNanos = System.nanoTime();
+                        warmup = new JitWarmup(conf, startNanos);
+                    }
+                    logger.info("new domain " + domain);
+                }
+            }
+        }
+        return domain;
     }
 
     public void cleanStats() {
-        if (nonNull(stats)) {
-            stats.clean();
+        for (PortDomain domain : domainArray) {
+            domain.getStats().clean();
         }
     }
 
@@ -141,7 +347,26 @@ public class NearRuntimeHelper {
         return conf;
     }
 
-    private InstanceStats newStats(String address, int nThreads) {
+    private PortDomain newDomain(Invoker<?> invoker) {
+        URL url = invoker.getUrl();
+        int nThreads = url.getParameter(Constants.THREADS_KEY, Constants.DEFAULT_THREADS);
+
+        DataStore dataStore = ExtensionLoader.getExtensionLoader(DataStore.class).getDefaultExtension();
+        Executor executor = (Executor) dataStore.get(Constants.EXECUTOR_SERVICE_COMPONENT_KEY, Integer.toString(url.getPort()));
+
+        int maxThreads = conf.isOpenPoolResize() && executor instanceof StatsThreadPoolExecutor ?
+                Math.max(nThreads, (int) (nThreads * conf.getPoolMaxThreadsRatio())) : nThreads;
+
+        return new PortDomain(url.getPort(),
+                              executor,
+                              newStats(DubboUtil.getIpAddress(invoker)),
+                              new GradientLimiter(conf, nThreads, maxThreads),
+                              new ServiceBulkhead(conf, nThreads),
+                              nThreads,
+                              maxThreads);
+    }
+
+    private InstanceStats newStats(String address) {
         TimeWindowInstanceStats stats =
                 new TimeWindowInstanceStats(conf,
                                             address,
@@ -150,7 +375,6 @@ public class NearRuntimeHelper {
                                             conf.getTimeIntervalOfStats(),
                                             conf.getTimeUnitOfStats(),
                                             conf.getCounterFactory());
-        stats.setDomainThreads(nThreads);
         return stats;
     }
 }
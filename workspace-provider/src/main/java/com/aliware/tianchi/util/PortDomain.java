@@ -0,0 +1,119 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.StatsThreadPoolExecutor;
+import com.aliware.tianchi.common.metric.GradientLimiter;
+import com.aliware.tianchi.common.metric.InstanceStats;
+import com.aliware.tianchi.common.metric.ServiceBulkhead;
+
+import java.util.concurrent.Executor;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+
+/**
+ * 一个协议端口上的运行时状态：线程池、统计信息、准入并发上限与按服务的并发划分，
+ * 同一个端口上暴露的服务共用一个线程池
+ *
+ * @author yangxf
+ */
+public class PortDomain {
+
+    private final int port;
+
+    private final Executor executor;
+
+    private final InstanceStats stats;
+
+    private final GradientLimiter limiter;
+
+    private final ServiceBulkhead bulkhead;
+
+    /**
+     * 线程池可以扩到的最大线程数，不能调整大小时等于初始线程数
+     */
+    private final int maxThreads;
+
+    private volatile int threads;
+
+    /**
+     * 最近一次推送时该端口上请求的平均处理时间，用于判断请求能否在截止时间前完成
+     */
+    private volatile double serviceTimeMs;
+
+    public PortDomain(int port, Executor executor, InstanceStats stats, GradientLimiter limiter,
+                      ServiceBulkhead bulkhead, int threads, int maxThreads) {
+        checkNotNull(stats, "stats");
+        checkNotNull(bulkhead, "bulkhead");
+        this.port = port;
+        this.executor = executor;
+        this.stats = stats;
+        this.limiter = limiter;
+        this.bulkhead = bulkhead;
+        this.threads = threads;
+        this.maxThreads = maxThreads;
+        stats.setDomainThreads(threads);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public ThreadPoolStats getThreadPoolStats() {
+        return ThreadPoolUtil.getThreadPoolStats(executor);
+    }
+
+    public InstanceStats getStats() {
+        return stats;
+    }
+
+    public GradientLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * 按 serviceId 划分的线程池并发，只在 openBulkhead 时生效
+     */
+    public ServiceBulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * 调整线程池大小，并同步到统计信息的 domainThreads，网关的令牌上限随之变化
+     *
+     * @return 线程池不支持调整大小时返回 false
+     */
+    public boolean resizeThreads(int nThreads) {
+        if (!(executor instanceof StatsThreadPoolExecutor) || nThreads <= 0) {
+            return false;
+        }
+        ((StatsThreadPoolExecutor) executor).resize(nThreads);
+        threads = nThreads;
+        stats.setDomainThreads(nThreads);
+        bulkhead.resize(nThreads);
+        return true;
+    }
+
+    public double getServiceTimeMs() {
+        return serviceTimeMs;
+    }
+
+    public void setServiceTimeMs(double serviceTimeMs) {
+        this.serviceTimeMs = serviceTimeMs;
+    }
+
+    @Override
+    public String toString() {
+        return "port=" + port + ", threads=" + threads + ", maxThreads=" + maxThreads + ", address=" + stats.getAddress();
+    }
+}
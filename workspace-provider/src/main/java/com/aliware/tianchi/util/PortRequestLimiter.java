@@ -0,0 +1,20 @@
+package com.aliware.tianchi.util;
+
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.transport.RequestLimiter;
+
+/**
+ * 知道请求所在协议端口的限流器，同一个服务暴露在多个端口上时按端口分别限流
+ *
+ * @author yangxf
+ */
+public interface PortRequestLimiter extends RequestLimiter {
+
+    /**
+     * @param port            接收请求的协议端口
+     * @param request         服务请求
+     * @param activeTaskCount 该端口线程池的活跃线程数
+     * @return false 拒绝请求
+     */
+    boolean tryAcquire(int port, Request request, int activeTaskCount);
+}
@@ -0,0 +1,172 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.common.conf.Configuration;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.rpc.listener.CallbackListener;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+
+/**
+ * 单个 listener 的推送信箱
+ * <p>
+ * 每个服务实例（serviceId@address）只保留最新的一条消息（latest-wins），同一时刻最多一个线程在发送，
+ * 慢的 listener 只会合并掉自己过时的消息，不会占用其他 listener 的发送线程。
+ * 连续失败 pushMaxFailures 次后按指数退避重试，退避期间只保留最新消息；
+ * 持续失败超过 pushEvictMs 才调用 onEvict 并丢弃之后的消息
+ *
+ * @author yangxf
+ */
+public class PushMailbox implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushMailbox.class);
+
+    private final String key;
+    private final CallbackListener listener;
+    private final Executor executor;
+    private final int maxFailures;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long evictNanos;
+    private final Runnable onEvict;
+
+    /**
+     * key: serviceId@address
+     * value: 待发送的最新消息
+     */
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private volatile boolean evicted;
+
+    /**
+     * 是否在退避中，退避结束前 post 不调度发送
+     */
+    private volatile boolean backoff;
+
+    private volatile long retryAtNanos;
+
+    /**
+     * 只在发送线程中读写
+     */
+    private int failures;
+    private long firstFailureNanos;
+
+    public PushMailbox(String key, CallbackListener listener, Executor executor, Configuration conf, Runnable onEvict) {
+        checkNotNull(listener, "listener");
+        checkNotNull(executor, "executor");
+        checkNotNull(conf, "conf");
+        checkNotNull(onEvict, "onEvict");
+        this.key = key;
+        this.listener = listener;
+        this.executor = executor;
+        this.maxFailures = Math.max(1, conf.getPushMaxFailures());
+        this.baseBackoffNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, conf.getStatsPushDelayMs()));
+        this.maxBackoffNanos = Math.max(baseBackoffNanos, TimeUnit.MILLISECONDS.toNanos(conf.getPushRetryMaxMs()));
+        this.evictNanos = TimeUnit.MILLISECONDS.toNanos(conf.getPushEvictMs());
+        this.onEvict = onEvict;
+    }
+
+    /**
+     * 投递消息，覆盖同一 key 还未发送的旧消息，不阻塞
+     *
+     * @param instanceKey serviceId@address，同一服务可能暴露在多个端口上
+     */
+    public void post(String instanceKey, String msg) {
+        if (evicted) {
+            return;
+        }
+        pending.put(instanceKey, msg);
+        if (!isBackingOff(System.nanoTime())) {
+            schedule();
+        }
+    }
+
+    public CallbackListener getListener() {
+        return listener;
+    }
+
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    private boolean isBackingOff(long nowNanos) {
+        return backoff && nowNanos - retryAtNanos < 0;
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                logger.warn("push to " + key + " rejected", e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        for (; ; ) {
+            Iterator<Map.Entry<String, String>> it = pending.entrySet().iterator();
+            while (!evicted && !isBackingOff(System.nanoTime()) && it.hasNext()) {
+                Map.Entry<String, String> entry = it.next();
+                String msg = entry.getValue();
+                // 只删除发送的这一条，发送期间投递的新消息留到下一轮
+                pending.remove(entry.getKey(), msg);
+                if (!send(msg)) {
+                    // 失败的消息留到重试时发送，期间有更新的消息则丢弃它
+                    pending.putIfAbsent(entry.getKey(), msg);
+                }
+            }
+
+            scheduled.set(false);
+            // 释放后再检查一次，避免 post 在释放前看到 scheduled 为 true 而丢失调度；
+            // 退避中时由退避结束后的下一次 post 调度
+            if (evicted || isBackingOff(System.nanoTime()) || pending.isEmpty() ||
+                !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private boolean send(String msg) {
+        try {
+            listener.receiveServerMsg(msg);
+            failures = 0;
+            backoff = false;
+            return true;
+        } catch (Throwable t) {
+            long now = System.nanoTime();
+            if (failures++ == 0) {
+                firstFailureNanos = now;
+            }
+            if (now - firstFailureNanos >= evictNanos) {
+                evicted = true;
+                pending.clear();
+                logger.warn("evict listener " + key + " after " + failures + " failures in " +
+                            TimeUnit.NANOSECONDS.toMillis(now - firstFailureNanos) + "ms", t);
+                onEvict.run();
+            } else if (failures >= maxFailures) {
+                int exp = Math.min(30, failures - maxFailures);
+                long delay = Math.min(maxBackoffNanos, baseBackoffNanos << exp);
+                retryAtNanos = now + delay;
+                backoff = true;
+                logger.warn("send to " + key + " failed " + failures + " times, retry in " +
+                            TimeUnit.NANOSECONDS.toMillis(delay) + "ms", t);
+            } else {
+                logger.error("send to " + key + " error", t);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.aliware.tianchi.util;
+
+/**
+ * 记录了入队时间的请求任务，执行器在开始执行时统计排队时间
+ *
+ * @author yangxf
+ */
+public interface QueuedTask extends Runnable {
+
+    /**
+     * 入队时间，基于 {@link System#nanoTime()}
+     */
+    long getEnqueueNanos();
+
+    /**
+     * 请求的 data
+     */
+    Object getData();
+
+    /**
+     * 接收请求的协议端口，用于找到所在端口的统计信息
+     */
+    int getPort();
+}
@@ -0,0 +1,61 @@
+package com.aliware.tianchi.util;
+
+import com.aliware.tianchi.common.conf.Configuration;
+
+import static com.aliware.tianchi.common.util.ObjectUtil.checkNotNull;
+
+/**
+ * 带滞回的线程数调整：目标值需要连续多次超出当前值一定比例才调整，
+ * 扩容直接到目标值，缩容每次最多缩小 shrinkRatio，避免来回抖动。
+ * 非线程安全，只在推送线程中使用
+ *
+ * @author yangxf
+ */
+public class ThreadPoolResizer {
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final double growRatio;
+    private final int growPushes;
+    private final double shrinkRatio;
+    private final int shrinkPushes;
+
+    private int grows;
+    private int shrinks;
+
+    public ThreadPoolResizer(Configuration conf, int minThreads, int maxThreads) {
+        checkNotNull(conf, "conf");
+        this.minThreads = Math.min(minThreads, maxThreads);
+        this.maxThreads = maxThreads;
+        this.growRatio = conf.getPoolGrowRatio();
+        this.growPushes = conf.getPoolGrowPushes();
+        this.shrinkRatio = conf.getPoolShrinkRatio();
+        this.shrinkPushes = conf.getPoolShrinkPushes();
+    }
+
+    /**
+     * @param current 当前线程数
+     * @param target  容量估计给出的最优并发
+     * @return 调整后的线程数，不需要调整时返回 current
+     */
+    public int next(int current, int target) {
+        target = Math.max(minThreads, Math.min(maxThreads, target));
+        if (target > current * (1 + growRatio)) {
+            shrinks = 0;
+            if (++grows >= growPushes) {
+                grows = 0;
+                return target;
+            }
+        } else if (target < current * (1 - shrinkRatio)) {
+            grows = 0;
+            if (++shrinks >= shrinkPushes) {
+                shrinks = 0;
+                return Math.max(target, (int) Math.ceil(current * (1 - shrinkRatio)));
+            }
+        } else {
+            grows = 0;
+            shrinks = 0;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,16 @@
+package com.aliware.tianchi.util;
+
+/**
+ * 自己维护线程状态计数的执行器，{@link ThreadPoolUtil} 不需要再扫描线程
+ *
+ * @author yangxf
+ */
+public interface ThreadPoolStatsAware {
+
+    ThreadPoolStats getThreadPoolStats();
+
+    /**
+     * 正在执行的任务数
+     */
+    int getActiveCount();
+}
@@ -23,6 +23,10 @@ public class ThreadPoolUtil {
             return EMPTY_THREAD_POOL_STATS;
         }
 
+        if (executor instanceof ThreadPoolStatsAware) {
+            return ((ThreadPoolStatsAware) executor).getThreadPoolStats();
+        }
+
         Set<Thread> threadSet = getWorkerThreads(executor);
         Object maybeBlocker = getMaybeBlocker(getWorkQueue(executor));
 
@@ -79,6 +83,19 @@ public class ThreadPoolUtil {
         };
     }
 
+    /**
+     * 正在执行的任务数，未知的执行器返回 0
+     */
+    public static int getActiveCount(Executor executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        if (executor instanceof ThreadPoolStatsAware) {
+            return ((ThreadPoolStatsAware) executor).getActiveCount();
+        }
+        return 0;
+    }
+
     @SuppressWarnings("unchecked")
     public static Set<Thread> getWorkerThreads(Executor executor) {
         checkNotNull(executor, "executor");